@@ -0,0 +1,24 @@
+package se.manele.ucanpark;
+
+import android.os.Trace;
+
+/**
+ * This class marks the sections of PerfRecorder in systrace
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class AndroidTracer implements PerfRecorder.Tracer {
+    // longer names are not accepted by Trace
+    private static final int MAX_NAME_LENGTH = 127;
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+}
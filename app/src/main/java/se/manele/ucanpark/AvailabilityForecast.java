@@ -0,0 +1,248 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTimeZone;
+
+import java.util.Arrays;
+
+/**
+ * This class tells when the parkings of a list are allowed during a horizon, ex. the next
+ * 6 hours or 7 days, and not only now. It is built once for the horizon, and then every
+ * question is answered without checking any rule again.
+ *
+ * Every rule of the list gets a timeline, the times when it goes from allowed to forbidden
+ * and back, found by jumping from transition to transition. Parkings with the same rule
+ * share its timeline. The horizon is also cut in slots, and every slot has one bit per rule
+ * that is set if the rule forbids parking at some time during the slot. Asking which
+ * parkings are allowed from 18:00 to 08:00 is then an OR of the slots in between.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class AvailabilityForecast {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private final ParkingStore parkings;
+    private final long fromMillis;
+    private final long toMillis;
+    private final long slotMillis;
+    private final int slots;
+    // how many longs the bits of all rules take
+    private final int words;
+    // the bits of slot s are at s * words
+    private final long[] forbidden;
+    private final Timeline[] timelines;
+
+    /**
+     * When one rule is allowed and forbidden during the horizon
+     */
+    public static final class Timeline {
+        // allowed the whole horizon
+        static final Timeline ALWAYS_ALLOWED = new Timeline(false, new long[0]);
+
+        private final boolean forbiddenAtStart;
+        private final long[] changes;
+
+        Timeline(boolean forbiddenAtStart, long[] changes) {
+            this.forbiddenAtStart = forbiddenAtStart;
+            this.changes = changes;
+        }
+
+        /**
+         * @return true if parking is forbidden at the start of the horizon
+         */
+        public boolean isForbiddenAtStart() {
+            return forbiddenAtStart;
+        }
+
+        /**
+         * @return how many times the status changes during the horizon
+         */
+        public int getChangeCount() {
+            return changes.length;
+        }
+
+        /**
+         * @param i which change, from 0
+         * @return the time of the change, the status is the opposite from then on
+         */
+        public long getChange(int i) {
+            return changes[i];
+        }
+
+        /**
+         * Method for checking the status at a time in the horizon
+         * @param millis the time
+         * @return true if parking is forbidden
+         */
+        public boolean isForbiddenAt(long millis) {
+            // the number of changes up to the time decides the status
+            int index = Arrays.binarySearch(changes, millis);
+            int passed = index >= 0 ? index + 1 : -index - 1;
+            return forbiddenAtStart ^ (passed % 2 == 1);
+        }
+    }
+
+    private AvailabilityForecast(ParkingStore parkings, long fromMillis, long toMillis, long slotMillis) {
+        this.parkings = parkings;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.slotMillis = slotMillis;
+        this.slots = (int) ((toMillis - fromMillis + slotMillis - 1) / slotMillis);
+        this.words = (parkings.getRuleCount() + 63) / 64;
+        this.forbidden = new long[slots * words];
+        this.timelines = new Timeline[parkings.getRuleCount()];
+    }
+
+    /**
+     * Builds the forecast of a list
+     * @param parkings      the parkings
+     * @param fromMillis    the start of the horizon
+     * @param horizonMillis how long the horizon is
+     * @param slotMinutes   how long a slot is, questions are answered for whole slots
+     * @param zone          the time zone the rules are in
+     * @return the forecast
+     */
+    public static AvailabilityForecast build(ParkingStore parkings, long fromMillis, long horizonMillis,
+                                             int slotMinutes, DateTimeZone zone) {
+        if (horizonMillis <= 0 || slotMinutes <= 0) {
+            throw new IllegalArgumentException("Empty horizon or slot");
+        }
+        AvailabilityForecast forecast = new AvailabilityForecast(parkings, fromMillis, fromMillis + horizonMillis,
+                slotMinutes * MILLIS_PER_MINUTE);
+        for (int rule = 0; rule < parkings.getRuleCount(); rule++) {
+            ParkingTimeRules rules = parkings.getRule(rule);
+            Timeline timeline = rules == null ? Timeline.ALWAYS_ALLOWED : forecast.timeline(rules, zone);
+            forecast.timelines[rule] = timeline;
+            forecast.markForbidden(rule, timeline);
+        }
+        return forecast;
+    }
+
+    /**
+     * Finds the times a rule changes during the horizon, one transition at a time
+     */
+    private Timeline timeline(ParkingTimeRules rule, DateTimeZone zone) {
+        RuleClock clock = RuleClock.at(fromMillis, zone);
+        boolean forbiddenAtStart = rule.isParkingForbidden(clock);
+        boolean status = forbiddenAtStart;
+        long[] changes = new long[8];
+        int count = 0;
+        long at = rule.nextTransitionMillis(clock);
+        while (at < toMillis) {
+            clock = RuleClock.at(at, zone);
+            boolean next = rule.isParkingForbidden(clock);
+            if (next != status) {
+                if (count == changes.length) {
+                    changes = Arrays.copyOf(changes, count * 2);
+                }
+                changes[count++] = at;
+                status = next;
+            }
+            // never the same minute again, even if the time zone data is odd
+            at = Math.max(rule.nextTransitionMillis(clock), at + MILLIS_PER_MINUTE);
+        }
+        if (count == 0 && !forbiddenAtStart) {
+            return Timeline.ALWAYS_ALLOWED;
+        }
+        return new Timeline(forbiddenAtStart, Arrays.copyOf(changes, count));
+    }
+
+    /**
+     * Sets the bit of the rule in every slot that has a forbidden time
+     */
+    private void markForbidden(int rule, Timeline timeline) {
+        int word = rule >>> 6;
+        long bit = 1L << rule;
+        boolean status = timeline.forbiddenAtStart;
+        long start = fromMillis;
+        for (int i = 0; i <= timeline.changes.length; i++) {
+            long end = i < timeline.changes.length ? timeline.changes[i] : toMillis;
+            if (status && end > start) {
+                int firstSlot = (int) ((start - fromMillis) / slotMillis);
+                int lastSlot = (int) ((end - 1 - fromMillis) / slotMillis);
+                for (int slot = firstSlot; slot <= lastSlot; slot++) {
+                    forbidden[slot * words + word] |= bit;
+                }
+            }
+            start = end;
+            status = !status;
+        }
+    }
+
+    /**
+     * Method for getting the timeline of a row
+     * @param position the row in the store
+     * @return the timeline of the rule of the row
+     */
+    public Timeline getTimeline(int position) {
+        int rule = parkings.getRuleIndex(position);
+        return rule == ParkingStore.NO_RULE ? Timeline.ALWAYS_ALLOWED : timelines[rule];
+    }
+
+    /**
+     * Finds the parkings where parking is allowed the whole time between two times.
+     * Times are rounded out to whole slots, so a parking that is forbidden in a part of
+     * a slot at the edge is left out.
+     * @param from  the start, it is moved into the horizon if it is outside
+     * @param to    the end, it is moved into the horizon if it is outside
+     * @return the rows of the store, in order
+     */
+    public int[] getAllowedPositions(long from, long to) {
+        long[] allowed = getAllowedRules(from, to);
+        int count = 0;
+        int[] positions = new int[parkings.size()];
+        for (int i = 0; i < parkings.size(); i++) {
+            int rule = parkings.getRuleIndex(i);
+            if (rule == ParkingStore.NO_RULE || (allowed[rule >>> 6] & (1L << rule)) != 0) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Method for checking if one row is allowed the whole time between two times
+     * @return true if parking is allowed, see getAllowedPositions
+     */
+    public boolean isAllowed(int position, long from, long to) {
+        int rule = parkings.getRuleIndex(position);
+        return rule == ParkingStore.NO_RULE || (getAllowedRules(from, to)[rule >>> 6] & (1L << rule)) != 0;
+    }
+
+    /**
+     * The bits of the rules that are not forbidden in any slot between the times
+     */
+    private long[] getAllowedRules(long from, long to) {
+        long[] any = new long[words];
+        long start = Math.max(from, fromMillis);
+        long end = Math.min(to, toMillis);
+        if (end > start) {
+            int firstSlot = (int) ((start - fromMillis) / slotMillis);
+            int lastSlot = (int) ((end - 1 - fromMillis) / slotMillis);
+            for (int slot = firstSlot; slot <= lastSlot; slot++) {
+                int offset = slot * words;
+                for (int w = 0; w < words; w++) {
+                    any[w] |= forbidden[offset + w];
+                }
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            any[w] = ~any[w];
+        }
+        return any;
+    }
+
+    /**
+     * @return the start of the horizon
+     */
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    /**
+     * @return the end of the horizon
+     */
+    public long getToMillis() {
+        return toMillis;
+    }
+}
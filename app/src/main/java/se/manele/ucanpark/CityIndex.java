@@ -0,0 +1,187 @@
+package se.manele.ucanpark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class keeps a spatial index of every parking in the city for the feeds whose
+ * parkings don't change, so that those feeds can be answered on the phone instead of
+ * being fetched for every location. A feed is indexed if none of its parkings has free
+ * spaces, since free spaces change all the time and have to come from the network.
+ *
+ * The indexes are synced with the API now and then and saved as snapshots, one file
+ * per feed, so they are there the next time the app starts.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class CityIndex {
+    private static final String FILE_PREFIX = "city-";
+    private static final String FILE_SUFFIX = ".snapshot";
+    // touched every time a sync has finished
+    private static final String SYNC_FILE = "city.synced";
+
+    private final File directory;
+    private final ExecutorService worker;
+    // by parking type name, only feeds that were complete at the last sync
+    private final Map<String, SpatialIndex> indexes = new ConcurrentHashMap<>();
+    private boolean syncStarted;
+    // feeds that were read completely during the sync
+    private int syncedFeeds;
+
+    /**
+     * The constructor of CityIndex
+     * @param directory where the indexes are saved
+     */
+    public CityIndex(File directory) {
+        this.directory = directory;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CityIndex");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reads the saved indexes, in the background. Until they have been read
+     * every feed is fetched from the network.
+     */
+    public void load() {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+                        continue;
+                    }
+                    String parkingTypeName = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+                    try {
+                        indexes.put(parkingTypeName, new SpatialIndex(ParkingSnapshot.read(file)));
+                    }
+                    catch (IOException e) {
+                        // the feed is fetched from the network until the next sync
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Method for getting the index of a feed
+     * @param parkingTypeName the feed
+     * @return the index, or null if the feed has to be fetched from the network
+     */
+    public SpatialIndex get(String parkingTypeName) {
+        return indexes.get(parkingTypeName);
+    }
+
+    /**
+     * Fetches every parking of the city again if the last sync is older than maxAgeMillis.
+     * Only one sync is made during the life of this object.
+     * @param fetcher       used to fetch the feeds
+     * @param cityFeeds     the feeds with a radius that covers the whole city
+     * @param maxAgeMillis  how old the indexes may be
+     */
+    public void syncIfOlderThan(final FeedFetcher fetcher, final List<ParkingFeed> cityFeeds, final long maxAgeMillis) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                File synced = new File(directory, SYNC_FILE);
+                if (syncStarted || System.currentTimeMillis() - synced.lastModified() < maxAgeMillis) {
+                    return;
+                }
+                syncStarted = true;
+                fetcher.fetch(cityFeeds, syncListener);
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private final FeedFetcher.Listener syncListener = new FeedFetcher.Listener() {
+        @Override
+        public void onFeedBatch(ParkingFeed feed, List<Parking> parkings) {
+            // the whole feed is handled when it has finished
+        }
+
+        @Override
+        public void onFeedFinished(final ParkingFeed feed, final List<Parking> parkings, boolean timedOut, final boolean complete) {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update(feed.getParkingTypeName(), parkings, complete);
+                }
+            });
+        }
+
+        @Override
+        public void onAllFeedsFinished(List<Parking> parkings) {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (syncedFeeds == 0) {
+                        // nothing could be fetched, ex. no network, it is tried again at the next start
+                        return;
+                    }
+                    File synced = new File(directory, SYNC_FILE);
+                    try {
+                        synced.createNewFile();
+                    }
+                    catch (IOException e) {
+                        // the sync is made again at the next start
+                    }
+                    synced.setLastModified(System.currentTimeMillis());
+                }
+            });
+        }
+    };
+
+    /**
+     * Indexes and saves a feed after a sync, or forgets it if it has free spaces
+     */
+    private void update(String parkingTypeName, List<Parking> parkings, boolean complete) {
+        if (!complete) {
+            // the old index, if any, is better than a part of the feed
+            return;
+        }
+        syncedFeeds++;
+        File file = new File(directory, FILE_PREFIX + parkingTypeName + FILE_SUFFIX);
+        for (Parking parking : parkings) {
+            if (parking.hasFreeSpots()) {
+                indexes.remove(parkingTypeName);
+                file.delete();
+                return;
+            }
+        }
+        SpatialIndex index = new SpatialIndex(new ArrayList<>(parkings));
+        indexes.put(parkingTypeName, index);
+        try {
+            ParkingSnapshot.write(file, index.getParkings());
+        }
+        catch (IOException e) {
+            // the index is still used until the app stops
+            file.delete();
+        }
+    }
+}
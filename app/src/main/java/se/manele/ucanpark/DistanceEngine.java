@@ -0,0 +1,89 @@
+package se.manele.ucanpark;
+
+/**
+ * This class is a helper class that computes distances between coordinates on the phone,
+ * so that the distances of the parkings can follow the user without asking the API again.
+ *
+ * Close points use an equirectangular approximation, which is only a few multiplications
+ * and exact to well under a meter inside a city. Points that are far apart use the
+ * haversine formula. This class should not be instantiated.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class DistanceEngine {
+    static final double EARTH_RADIUS = 6371008.8;
+    static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    // about 20 km, further than this the approximation is no longer exact enough
+    private static final double MAX_APPROXIMATION_DEGREES = 0.2;
+
+    private DistanceEngine() {
+
+    }
+
+    /**
+     * Method for getting how many meters one degree of longitude is at a latitude
+     * @param latitude the latitude
+     * @return meters per degree
+     */
+    static double metersPerDegreeLongitude(double latitude) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Method for getting the distance between two coordinates
+     * @return the distance in meters, rounded
+     */
+    public static int distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latitude = Math.toRadians(latitude1);
+        return distance(latitude1, longitude1, Math.cos(latitude), Math.sin(latitude), latitude2, longitude2);
+    }
+
+    /**
+     * Computes the distance from one location to many coordinates
+     * @param latitude      the location
+     * @param longitude     the location
+     * @param latitudes     the coordinates
+     * @param longitudes    the coordinates
+     * @param count         how many coordinates
+     * @param distances     the distances in meters are written here
+     */
+    public static void distances(double latitude, double longitude, double[] latitudes, double[] longitudes,
+                                 int count, int[] distances) {
+        double radians = Math.toRadians(latitude);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        for (int i = 0; i < count; i++) {
+            distances[i] = distance(latitude, longitude, cos, sin, latitudes[i], longitudes[i]);
+        }
+    }
+
+    /**
+     * The distance from a location where cos and sin of the latitude are already known
+     */
+    private static int distance(double latitude1, double longitude1, double cos1, double sin1,
+                                double latitude2, double longitude2) {
+        double dLatitude = latitude2 - latitude1;
+        double dLongitude = longitude2 - longitude1;
+        if (Math.abs(dLatitude) > MAX_APPROXIMATION_DEGREES || Math.abs(dLongitude) > MAX_APPROXIMATION_DEGREES) {
+            return (int) Math.round(haversine(latitude1, longitude1, latitude2, longitude2));
+        }
+        // cos of the middle latitude, cos(a + d) is about cos(a) - sin(a) * d when d is small
+        double cosMiddle = cos1 - sin1 * Math.toRadians(dLatitude) / 2;
+        double x = dLongitude * METERS_PER_DEGREE * cosMiddle;
+        double y = dLatitude * METERS_PER_DEGREE;
+        return (int) Math.round(Math.sqrt(x * x + y * y));
+    }
+
+    /**
+     * The great circle distance between two coordinates
+     * @return the distance in meters
+     */
+    static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLatitude * sinLatitude
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
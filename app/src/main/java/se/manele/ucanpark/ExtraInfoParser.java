@@ -0,0 +1,375 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTimeConstants;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a helper class that turns the ExtraInfo text of a parking, like
+ * "P-förbud torsdagar klockan 02.00 - 07.00 jämna veckor", into ParkingTimeRules.
+ * A text with several clauses, ex. one line for every ban on a sign, becomes one rule.
+ * Many parkings have exactly the same text, so every text is parsed only once and the
+ * parsed rule is shared. This class should not be instantiated.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class ExtraInfoParser {
+    // how many different texts we remember
+    private static final int MAX_CACHED_RULES = 512;
+
+    private static final String PREFIX = "P-förbud ";
+    private static final String DAYS = "dagar klockan ";
+    private static final String WEEKS = " veckor";
+    private static final String DATES = " under tiden ";
+
+    private static final String[] MONTHS = {
+            "januari", "februari", "mars", "april", "maj", "juni", "juli",
+            "augusti", "september", "oktober", "november"
+    };
+
+    // the words of the weekdays without "dag" or "dagar", ex. "tors" in "torsdagar", and their day of the week
+    private static final String[] DAY_WORDS = { "mån", "tis", "ons", "tors", "tor", "fre", "lör", "sön" };
+    private static final int[] DAY_NUMBERS = { 1, 2, 3, 4, 4, 5, 6, 7 };
+    private static final String DAY_ENDING = "dagar";
+    // "vardagar", monday to friday
+    private static final String WEEKDAYS_WORD = "var";
+    private static final int WEEKDAYS = 8;
+    // "måndagar till fredagar" is a range like "mån-fre"
+    private static final String RANGE_WORD = "till";
+    private static final int WEEKDAY_BITS = 0x1F;
+
+    // stored for texts without a rule, since the cache can't hold null
+    private static final ParkingTimeRules NO_RULES =
+            new ParkingTimeRules(DateTimeConstants.MONDAY, 0, 0, 0, 0, false, false, 1, 1, 1, 1);
+
+    private static final Map<String, ParkingTimeRules> cache =
+            new LinkedHashMap<String, ParkingTimeRules>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParkingTimeRules> eldest) {
+                    return size() > MAX_CACHED_RULES;
+                }
+            };
+
+    private ExtraInfoParser() {
+
+    }
+
+    /**
+     * Returns the rule described by an ExtraInfo text. The same text always gives
+     * the same rule object, so the returned rule must not be changed.
+     * @param extraInformation the ExtraInfo text of a parking
+     * @return the rule, or null if the text doesn't describe a parking ban
+     */
+    public static ParkingTimeRules getRules(String extraInformation) {
+        if (extraInformation == null) {
+            return null;
+        }
+        ParkingTimeRules rules;
+        synchronized (cache) {
+            rules = cache.get(extraInformation);
+        }
+        if (rules == null) {
+            long parse = PerfRecorder.begin("rule parse");
+            rules = parse(extraInformation);
+            PerfRecorder.end(PerfRecorder.Metric.RULE_PARSE, null, parse);
+            if (rules == null) {
+                rules = NO_RULES;
+            }
+            synchronized (cache) {
+                // another thread may have parsed the same text meanwhile, its rule is the one that is shared
+                ParkingTimeRules cached = cache.get(extraInformation);
+                if (cached != null) {
+                    rules = cached;
+                }
+                else {
+                    cache.put(extraInformation, rules);
+                }
+            }
+        }
+        return rules == NO_RULES ? null : rules;
+    }
+
+    /**
+     * Reads every clause of the text. A clause has the form of the pattern
+     * "(.*)dagar klockan (\d{2}).(\d{2}) - (\d{2}).(\d{2})( (jämna|udda) veckor)?
+     * ( under tiden (\d{1,2}):[ae] ([a-z]*) - (\d{1,2}):[ae] ([a-z]*))?"
+     * and clauses come after "P-förbud ", one after another or on the lines below it.
+     * The weekday part can be one day, a list or a range, ex. "torsdagar", "mån-fre",
+     * "måndagar till fredagar" or "måndagar och torsdagar". Nothing is read with a Pattern, a Matcher or substrings.
+     * @param s the ExtraInfo text
+     * @return the rule with all clauses, or null if the text has none
+     */
+    static ParkingTimeRules parse(String s) {
+        List<ParkingTimeRules> clauses = new ArrayList<>();
+        Cursor cursor = new Cursor();
+        int at = nextPrefix(s, 0);
+        while (at >= 0) {
+            int next = nextPrefix(s, at + PREFIX.length());
+            int end = next < 0 ? s.length() : next;
+            int lineStart = at + PREFIX.length();
+            while (lineStart < end) {
+                int lineEnd = Math.min(lineEnd(s, lineStart), end);
+                parseLine(s, lineStart, lineEnd, cursor, clauses);
+                lineStart = lineEnd + 1;
+            }
+            at = next;
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        if (clauses.size() > ParkingTimeRules.MAX_CLAUSES) {
+            // no sign has this many, the rest are left out
+            clauses = clauses.subList(0, ParkingTimeRules.MAX_CLAUSES);
+        }
+        return ParkingTimeRules.union(clauses);
+    }
+
+    /**
+     * @return where the next "P-förbud " from 'from' starts, at the start of the text or
+     *         after something that isn't a letter, or -1
+     */
+    private static int nextPrefix(String s, int from) {
+        int at = s.indexOf(PREFIX, from);
+        while (at > 0 && Character.isLetter(s.charAt(at - 1))) {
+            at = s.indexOf(PREFIX, at + 1);
+        }
+        return at;
+    }
+
+    /**
+     * Reads the clauses of one line, every "dagar klockan" with a time after it ends the
+     * weekday part of a clause
+     */
+    private static void parseLine(String s, int start, int end, Cursor cursor, List<ParkingTimeRules> clauses) {
+        int dayStart = start;
+        int daysAt = s.indexOf(DAYS, dayStart);
+        while (daysAt >= 0 && daysAt + DAYS.length() <= end) {
+            int pos = daysAt + DAYS.length();
+            if (!isTime(s, pos, end)) {
+                daysAt = s.indexOf(DAYS, daysAt + 1);
+                continue;
+            }
+            ParkingTimeRules clause = toRules(s, dayStart, daysAt, pos, cursor);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+            dayStart = cursor.pos;
+            daysAt = s.indexOf(DAYS, dayStart);
+        }
+    }
+
+    /**
+     * @param cursor the position after the clause is stored in it
+     * @return the clause, or null if the weekdays couldn't be read
+     */
+    private static ParkingTimeRules toRules(String s, int dayStart, int dayEnd, int pos, Cursor cursor) {
+        int days = getDaysOfWeek(s, dayStart, dayEnd);
+        int startHour = twoDigits(s, pos);
+        int startMinute = twoDigits(s, pos + 3);
+        int endHour = twoDigits(s, pos + 8);
+        int endMinute = twoDigits(s, pos + 11);
+        pos += 13;
+
+        // if there is something after the time, check the value of "jämna|udda"
+        boolean odd = true;
+        boolean even = true;
+        if (s.startsWith(" jämna" + WEEKS, pos)) {
+            odd = false;
+            pos += 6 + WEEKS.length();
+        }
+        else if (s.startsWith(" udda" + WEEKS, pos)) {
+            even = false;
+            pos += 5 + WEEKS.length();
+        }
+
+        int startMonth = 1;
+        int startDay = 1;
+        int endMonth = 12;
+        int endDay = 31;
+        // if there is information after the odd/even week, check those values
+        if (s.startsWith(DATES, pos)) {
+            int dateEnd = readDate(s, pos + DATES.length(), cursor);
+            if (dateEnd >= 0 && s.startsWith(" - ", dateEnd)) {
+                int startMonthAt = cursor.monthStart;
+                int startMonthEnd = cursor.monthEnd;
+                int dayOfMonth = cursor.dayOfMonth;
+                int periodEnd = readDate(s, dateEnd + 3, cursor);
+                if (periodEnd >= 0) {
+                    startDay = dayOfMonth;
+                    startMonth = getMonth(s, startMonthAt, startMonthEnd);
+                    endDay = cursor.dayOfMonth;
+                    endMonth = getMonth(s, cursor.monthStart, cursor.monthEnd);
+                    pos = periodEnd;
+                }
+            }
+        }
+        cursor.pos = pos;
+
+        if (days == 0) {
+            return null;
+        }
+        return ParkingTimeRules.onDays(days, startHour, startMinute, endHour, endMinute, odd, even, startMonth, startDay, endMonth, endDay);
+    }
+
+    /**
+     * Checks for "dd.dd - dd.dd" where the dots can be any character on the line
+     */
+    private static boolean isTime(String s, int pos, int end) {
+        return pos + 13 <= end
+                && isDigit(s, pos) && isDigit(s, pos + 1) && !isLineTerminator(s.charAt(pos + 2))
+                && isDigit(s, pos + 3) && isDigit(s, pos + 4)
+                && s.startsWith(" - ", pos + 5)
+                && isDigit(s, pos + 8) && isDigit(s, pos + 9) && !isLineTerminator(s.charAt(pos + 10))
+                && isDigit(s, pos + 11) && isDigit(s, pos + 12);
+    }
+
+    /**
+     * Reads "d:e month" or "dd:a month" into the cursor as day of month, start and end of the month name
+     * @return the position after the month name, or -1 if there is no date here
+     */
+    private static int readDate(String s, int pos, Cursor cursor) {
+        if (!isDigit(s, pos)) {
+            return -1;
+        }
+        int dayOfMonth = s.charAt(pos++) - '0';
+        if (isDigit(s, pos)) {
+            dayOfMonth = dayOfMonth * 10 + s.charAt(pos++) - '0';
+        }
+        if (pos + 3 > s.length() || s.charAt(pos) != ':'
+                || (s.charAt(pos + 1) != 'a' && s.charAt(pos + 1) != 'e') || s.charAt(pos + 2) != ' ') {
+            return -1;
+        }
+        pos += 3;
+        int monthStart = pos;
+        while (pos < s.length() && s.charAt(pos) >= 'a' && s.charAt(pos) <= 'z') {
+            pos++;
+        }
+        cursor.dayOfMonth = dayOfMonth;
+        cursor.monthStart = monthStart;
+        cursor.monthEnd = pos;
+        return pos;
+    }
+
+    private static int getMonth(String s, int start, int end) {
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (isWord(s, start, end, MONTHS[i])) {
+                return i + 1;
+            }
+        }
+        return 12;
+    }
+
+    /**
+     * Reads the weekdays of a clause. Only whole words are days, so "mån", "måndag" and
+     * "måndagar" are monday but "från" and "tillfälligt" are nothing. Days with a "-",
+     * a "–" or "till" between them are a range.
+     * @return bit (dayOfWeek - 1) for every day, or 0 if there is no weekday
+     */
+    private static int getDaysOfWeek(String s, int start, int end) {
+        int days = 0;
+        int lastDay = 0;
+        boolean range = false;
+        int pos = start;
+        while (pos < end) {
+            char c = s.charAt(pos);
+            if (!Character.isLetter(c)) {
+                range |= c == '-' || c == '\u2013';
+                pos++;
+                continue;
+            }
+            int wordStart = pos;
+            while (pos < end && Character.isLetter(s.charAt(pos))) {
+                pos++;
+            }
+            if (isWord(s, wordStart, pos, RANGE_WORD)) {
+                range = true;
+                continue;
+            }
+            int day = getDayOfWeek(s, wordStart, pos);
+            if (day == WEEKDAYS) {
+                days |= WEEKDAY_BITS;
+                lastDay = 0;
+            }
+            else if (day != 0) {
+                days |= 1 << (day - 1);
+                if (range && lastDay != 0) {
+                    // mån-fre, and fre-mån over the weekend
+                    for (int d = lastDay; d != day; d = d % 7 + 1) {
+                        days |= 1 << (d - 1);
+                    }
+                }
+                lastDay = day;
+            }
+            range = false;
+        }
+        return days;
+    }
+
+    /**
+     * @return the day of the week of a word, WEEKDAYS for "vardagar" or 0 if it isn't a day
+     */
+    private static int getDayOfWeek(String s, int start, int end) {
+        for (int i = 0; i < DAY_WORDS.length; i++) {
+            if (isDayWord(s, start, end, DAY_WORDS[i])) {
+                return DAY_NUMBERS[i];
+            }
+        }
+        return isDayWord(s, start, end, WEEKDAYS_WORD) ? WEEKDAYS : 0;
+    }
+
+    /**
+     * @return true if the word is the day, alone or with "dag" or "dagar" after it, in any case
+     */
+    private static boolean isDayWord(String s, int start, int end, String day) {
+        int rest = end - start - day.length();
+        return rest >= 0 && s.regionMatches(true, start, day, 0, day.length())
+                && (rest == 0 || ((rest == 3 || rest == DAY_ENDING.length())
+                && s.regionMatches(true, start + day.length(), DAY_ENDING, 0, rest)));
+    }
+
+    private static boolean isWord(String s, int start, int end, String word) {
+        return end - start == word.length() && s.startsWith(word, start);
+    }
+
+    private static int twoDigits(String s, int pos) {
+        return (s.charAt(pos) - '0') * 10 + (s.charAt(pos + 1) - '0');
+    }
+
+    private static boolean isDigit(String s, int pos) {
+        if (pos >= s.length()) {
+            return false;
+        }
+        char c = s.charAt(pos);
+        return c >= '0' && c <= '9';
+    }
+
+    private static int lineEnd(String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (isLineTerminator(s.charAt(i))) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Where the parse of one text is. One cursor is used for every clause of the text,
+     * so reading a clause creates no objects but its rule.
+     */
+    private static final class Cursor {
+        // the position after the last clause
+        int pos;
+        // the last date that was read, the day of month and where its month name is
+        int dayOfMonth;
+        int monthStart;
+        int monthEnd;
+    }
+}
@@ -0,0 +1,384 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class fetches several parking feeds at the same time. Every feed has a deadline,
+ * and when all feeds have finished or timed out the parkings of all feeds are
+ * published together, so a refresh takes as long as the slowest feed instead of
+ * the sum of all feeds. While a feed is downloading its parkings are also handed
+ * on in small batches, so the first parkings can be shown right away.
+ *
+ * Every call to fetch is a new generation that supersedes the one before it. The feeds
+ * of a superseded generation are cancelled, which closes their connections, and nothing
+ * more of it reaches the listener. A feed has at most one request running and one
+ * waiting for it to stop, a request that is still waiting when a newer one comes is dropped.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class FeedFetcher {
+    // the API has four feeds we use, more than that will wait in the queue
+    private static final int MAX_CONCURRENT_FEEDS = 4;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService deadlines;
+    private final Executor callbackExecutor;
+    private final long feedTimeoutMillis;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    // the requests of every feed by parking type, guarded by this
+    private final Map<String, Slot> slots = new HashMap<>();
+    // the latest generation, its listener is the only one that is called
+    private volatile Round current;
+
+    /**
+     * This interface is called when feeds are done. All calls are made on the callback executor.
+     */
+    public interface Listener {
+        /**
+         * Called while a feed is downloading, with the parkings parsed since the last batch.
+         * No batches of a feed come after onFeedFinished of that feed.
+         * @param feed      the feed that is downloading
+         * @param parkings  the parkings of the batch
+         */
+        void onFeedBatch(ParkingFeed feed, List<Parking> parkings);
+
+        /**
+         * Called once for every feed when it has finished or timed out.
+         * @param feed      the feed that is done
+         * @param parkings  all parkings of the feed that were handed on in batches
+         * @param timedOut  true if the feed didn't finish before its deadline
+         * @param complete  true if the whole feed was read, false if it timed out or failed
+         */
+        void onFeedFinished(ParkingFeed feed, List<Parking> parkings, boolean timedOut, boolean complete);
+
+        /**
+         * Called once when every feed is done.
+         * @param parkings  the parkings of all feeds, in the order the feeds were given
+         */
+        void onAllFeedsFinished(List<Parking> parkings);
+    }
+
+    /**
+     * The constructor of FeedFetcher
+     * @param callbackExecutor      where the listener is called, in the app this is the main thread
+     * @param feedTimeoutMillis     how long a feed may take before it is given up
+     * @param batchSize             how many parkings are handed on together while downloading
+     * @param flushIntervalMillis   how long a parking may wait for its batch to fill up
+     */
+    public FeedFetcher(Executor callbackExecutor, long feedTimeoutMillis, int batchSize, long flushIntervalMillis) {
+        this.callbackExecutor = callbackExecutor;
+        this.feedTimeoutMillis = feedTimeoutMillis;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        ThreadFactory threads = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FeedFetcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_FEEDS, MAX_CONCURRENT_FEEDS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threads);
+        this.executor.allowCoreThreadTimeOut(true);
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, threads);
+        timer.setRemoveOnCancelPolicy(true);
+        this.deadlines = timer;
+    }
+
+    /**
+     * Starts fetching all feeds at the same time. A fetch that is still running is
+     * superseded, it is cancelled and the listener is not told anything more about it.
+     * @param feeds     the feeds to fetch
+     * @param listener  told about every feed and about the merged result
+     */
+    public void fetch(List<ParkingFeed> feeds, final Listener listener) {
+        final Round round = new Round(feeds, listener);
+        Round previous = current;
+        current = round;
+        if (previous != null) {
+            previous.supersede();
+        }
+        if (feeds.isEmpty()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (round.isCurrent()) {
+                        listener.onAllFeedsFinished(new ArrayList<Parking>());
+                    }
+                }
+            });
+            return;
+        }
+        for (int i = 0; i < feeds.size(); i++) {
+            round.start(i);
+        }
+    }
+
+    /**
+     * Starts every thread at once and runs a task on each of them, ex. to prepare the
+     * threads while nothing is fetched yet. A thread that is idle for 30 seconds stops
+     * and has to be started again.
+     * @param task runs once on every thread
+     */
+    public void warmUp(Runnable task) {
+        // every execute starts a new thread as long as there are fewer than MAX_CONCURRENT_FEEDS
+        for (int i = executor.getPoolSize(); i < MAX_CONCURRENT_FEEDS; i++) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Stops the threads, feeds that are still running are given up
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    /**
+     * Runs a request now if nothing else of its feed is running, otherwise it waits
+     * in place of the request that was waiting before it
+     */
+    private synchronized void submit(Request request) {
+        Slot slot = slots.get(request.key);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(request.key, slot);
+        }
+        if (slot.running == null) {
+            slot.running = request;
+            execute(request);
+        }
+        else {
+            // the request that was waiting is older, so its round is superseded already
+            slot.waiting = request;
+        }
+    }
+
+    /**
+     * Starts the request that was waiting for this one, if any
+     */
+    private synchronized void finished(Request request) {
+        Slot slot = slots.get(request.key);
+        slot.running = slot.waiting;
+        slot.waiting = null;
+        if (slot.running != null) {
+            execute(slot.running);
+        }
+        else {
+            slots.remove(request.key);
+        }
+    }
+
+    /**
+     * Runs a request on a thread. After shutdown it is not run, its feed is finished
+     * as not complete instead, so its round doesn't wait for it.
+     */
+    private synchronized void execute(Request request) {
+        try {
+            executor.execute(request);
+        }
+        catch (RejectedExecutionException e) {
+            // nothing runs after it, a request that comes later is rejected too
+            slots.remove(request.key);
+            request.stream.finish(false);
+        }
+    }
+
+    /**
+     * The request that is running and the one that is waiting, of one feed
+     */
+    private static class Slot {
+        Request running;
+        Request waiting;
+    }
+
+    /**
+     * The download of one feed of a round
+     */
+    private class Request implements Runnable {
+        final String key;
+        final ParkingFeed feed;
+        final ParkingStream stream;
+
+        Request(ParkingFeed feed, ParkingStream stream) {
+            this.key = feed.getParkingTypeName();
+            this.feed = feed;
+            this.stream = stream;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (stream.isCancelled()) {
+                    // superseded or timed out while it was waiting
+                    stream.finish(false);
+                }
+                else if (feed.getLimit() != ParkingFeed.NO_LIMIT) {
+                    NetworkUtils.streamTopParkingData(feed.getUrl(), feed.getParkingTypeName(), feed.getLimit(), stream);
+                }
+                else {
+                    NetworkUtils.streamParkingData(feed.getUrl(), feed.getParkingTypeName(), stream);
+                }
+            }
+            finally {
+                finished(this);
+            }
+        }
+    }
+
+    /**
+     * One call to fetch, it keeps track of which feeds are done
+     */
+    private class Round {
+        private final List<ParkingFeed> feeds;
+        private final Listener listener;
+        private final List<List<Parking>> results;
+        private final boolean[] done;
+        private int remaining;
+        private final ScheduledFuture<?>[] deadlineTasks;
+        private final ParkingStream[] streams;
+        private boolean superseded;
+
+        Round(List<ParkingFeed> feeds, Listener listener) {
+            this.feeds = new ArrayList<>(feeds);
+            this.listener = listener;
+            this.results = new ArrayList<>(feeds.size());
+            for (int i = 0; i < feeds.size(); i++) {
+                results.add(new ArrayList<Parking>());
+            }
+            this.done = new boolean[feeds.size()];
+            this.remaining = feeds.size();
+            this.deadlineTasks = new ScheduledFuture<?>[feeds.size()];
+            this.streams = new ParkingStream[feeds.size()];
+        }
+
+        boolean isCurrent() {
+            return current == this;
+        }
+
+        void start(final int index) {
+            final ParkingFeed feed = feeds.get(index);
+            final ParkingStream stream = new ParkingStream(batchSize, flushIntervalMillis, deadlines, new ParkingStream.Listener() {
+                @Override
+                public void onParkings(List<Parking> parkings) {
+                    batch(index, parkings);
+                }
+
+                @Override
+                public void onFinished(boolean complete) {
+                    if (finish(index, false, complete) && deadlineTasks[index] != null) {
+                        // the deadline is not needed once the feed has finished
+                        deadlineTasks[index].cancel(false);
+                    }
+                }
+            });
+            streams[index] = stream;
+            try {
+                deadlineTasks[index] = deadlines.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (finish(index, true, false)) {
+                            stream.cancel();
+                        }
+                    }
+                }, feedTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                // shut down, the feed is finished as not complete instead of fetched
+                stream.cancel();
+                stream.finish(false);
+                return;
+            }
+            submit(new Request(feed, stream));
+        }
+
+        /**
+         * Cancels the feeds that are not done. Nothing more of this round is handed on,
+         * also not what was handed on already but hasn't reached the listener yet.
+         */
+        synchronized void supersede() {
+            superseded = true;
+            for (int i = 0; i < feeds.size(); i++) {
+                if (!done[i]) {
+                    done[i] = true;
+                    deadlineTasks[i].cancel(false);
+                    streams[i].cancel();
+                }
+            }
+        }
+
+        /**
+         * Hands on a batch, unless the feed is already done
+         */
+        synchronized void batch(final int index, final List<Parking> parkings) {
+            if (done[index]) {
+                return;
+            }
+            results.get(index).addAll(parkings);
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // dropped if a newer round started while it was on its way
+                    if (isCurrent()) {
+                        listener.onFeedBatch(feeds.get(index), parkings);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Records that a feed is done, only the first call for a feed counts
+         * @return true if this was the first call
+         */
+        synchronized boolean finish(final int index, final boolean timedOut, final boolean complete) {
+            if (done[index]) {
+                return false;
+            }
+            done[index] = true;
+            final List<Parking> parkings = results.get(index);
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCurrent()) {
+                        listener.onFeedFinished(feeds.get(index), parkings, timedOut, complete);
+                    }
+                }
+            });
+            remaining--;
+            if (remaining == 0) {
+                final List<Parking> merged = new ArrayList<>();
+                for (List<Parking> feedParkings : results) {
+                    merged.addAll(feedParkings);
+                }
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCurrent()) {
+                            listener.onAllFeedsFinished(merged);
+                        }
+                    }
+                });
+            }
+            return true;
+        }
+    }
+}
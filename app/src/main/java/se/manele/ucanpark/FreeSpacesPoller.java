@@ -0,0 +1,296 @@
+package se.manele.ucanpark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class keeps the free spaces of the parkings on the screen fresh. Free spaces are
+ * the only values that change all the time, so only they are fetched again, one parking
+ * at a time, and only for the rows that are visible plus a few rows around them.
+ *
+ * Every parking has its own interval. It gets shorter when the number of free spaces
+ * changes or is close to zero, and longer while it stays the same. A parking that
+ * couldn't be fetched waits longer for every error in a row.
+ *
+ * All methods must be called on the thread the timer runs tasks on, in the app the main thread.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class FreeSpacesPoller {
+    // rows above and below the screen that are also kept fresh
+    static final int MARGIN_ROWS = 5;
+    static final long MIN_INTERVAL_MILLIS = 15 * 1000L;
+    static final long START_INTERVAL_MILLIS = 30 * 1000L;
+    static final long MAX_INTERVAL_MILLIS = 5 * 60 * 1000L;
+    // with this many free spaces or fewer the parking may soon be full, so it is fetched often
+    static final int FEW_FREE_SPACES = 3;
+    static final long FEW_FREE_SPACES_INTERVAL_MILLIS = 30 * 1000L;
+    // parkings that are not visible are forgotten when more than this many are known
+    private static final int MAX_TRACKED = 256;
+
+    private final Source source;
+    private final TransitionScheduler.Timer timer;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final ExecutorService worker;
+    // by id, also parkings that have scrolled away, so that they keep their interval
+    private final Map<String, Track> tracks = new HashMap<>();
+    private List<Track> visible = new ArrayList<>();
+    private boolean started;
+    private boolean polling;
+    // when the timer is set to go off, or Long.MAX_VALUE if it isn't set
+    private long armedAt = Long.MAX_VALUE;
+
+    /**
+     * This interface fetches the free spaces of one parking, it is called on a background thread
+     */
+    public interface Source {
+        /**
+         * @param parkingType the type of the parking
+         * @return true if parkings of the type can be fetched one by one
+         */
+        boolean canFetch(String parkingType);
+
+        /**
+         * @param parkingType   the type of the parking
+         * @param id            the id of the parking
+         * @return the free spaces, or Parking.NO_VALUE if the API doesn't send them
+         * @throws IOException if the parking couldn't be fetched
+         */
+        int fetchFreeSpaces(String parkingType, String id) throws IOException;
+    }
+
+    /**
+     * This interface is told about new free spaces, on the callback executor
+     */
+    public interface Listener {
+        /**
+         * @param freeSpaces the free spaces that changed, by parking id
+         */
+        void onFreeSpacesChanged(Map<String, Integer> freeSpaces);
+    }
+
+    /**
+     * The state of one parking
+     */
+    private static class Track {
+        final String id;
+        final String parkingType;
+        int freeSpaces;
+        long interval = START_INTERVAL_MILLIS;
+        long due;
+        int errors;
+
+        Track(String id, String parkingType, int freeSpaces, long due) {
+            this.id = id;
+            this.parkingType = parkingType;
+            this.freeSpaces = freeSpaces;
+            this.due = due;
+        }
+    }
+
+    /**
+     * The constructor of FreeSpacesPoller
+     * @param source            fetches the free spaces
+     * @param timer             runs the poller when the next parking is due
+     * @param callbackExecutor  where results are handled, it must be the thread of the timer
+     * @param listener          told about free spaces that changed
+     */
+    public FreeSpacesPoller(Source source, TransitionScheduler.Timer timer, Executor callbackExecutor, Listener listener) {
+        this.source = source;
+        this.timer = timer;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FreeSpacesPoller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Tells which rows are on the screen. Parkings without free spaces, or of a type that
+     * can't be fetched one by one, are never fetched.
+     * @param parkings  the list that is shown
+     * @param first     the first visible row
+     * @param last      the last visible row, less than first if nothing is visible
+     */
+    public void setVisible(ParkingStore parkings, int first, int last) {
+        long now = System.currentTimeMillis();
+        List<Track> visible = new ArrayList<>();
+        int from = Math.max(0, first - MARGIN_ROWS);
+        int to = Math.min(parkings.size() - 1, last + MARGIN_ROWS);
+        if (from <= to) {
+            ParkingStore.Row row = parkings.row(from);
+            for (int position = from; position <= to; position++) {
+                row.moveTo(position);
+                if (!row.hasFreeSpots() || row.getId() == null || row.getParkingType() == null
+                        || !source.canFetch(row.getParkingType())) {
+                    continue;
+                }
+                Track track = tracks.get(row.getId());
+                if (track == null) {
+                    // the value was just fetched with the feed
+                    track = new Track(row.getId(), row.getParkingType(), row.getFreeSpots(), now + START_INTERVAL_MILLIS);
+                    tracks.put(track.id, track);
+                }
+                // a refresh of the feed may have changed it
+                track.freeSpaces = row.getFreeSpots();
+                visible.add(track);
+            }
+        }
+        this.visible = visible;
+        if (tracks.size() > MAX_TRACKED) {
+            forgetHidden();
+        }
+        arm();
+    }
+
+    /**
+     * Starts fetching, ex. when the app is shown
+     */
+    public void start() {
+        started = true;
+        arm();
+    }
+
+    /**
+     * Stops fetching until start is called
+     */
+    public void stop() {
+        started = false;
+        timer.cancel(poll);
+        armedAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * Stops the background thread
+     */
+    public void shutdown() {
+        stop();
+        worker.shutdownNow();
+    }
+
+    private void forgetHidden() {
+        Map<String, Track> kept = new HashMap<>();
+        for (Track track : visible) {
+            kept.put(track.id, track);
+        }
+        tracks.keySet().retainAll(kept.keySet());
+    }
+
+    private void arm() {
+        long at = Long.MAX_VALUE;
+        if (started && !polling) {
+            for (Track track : visible) {
+                at = Math.min(at, track.due);
+            }
+        }
+        if (at == armedAt) {
+            return;
+        }
+        timer.cancel(poll);
+        armedAt = at;
+        if (at != Long.MAX_VALUE) {
+            timer.schedule(poll, Math.max(0, at - System.currentTimeMillis()));
+        }
+    }
+
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            armedAt = Long.MAX_VALUE;
+            long now = System.currentTimeMillis();
+            final List<Track> due = new ArrayList<>();
+            for (Track track : visible) {
+                if (track.due <= now) {
+                    due.add(track);
+                }
+            }
+            if (due.isEmpty()) {
+                arm();
+                return;
+            }
+            // one round at a time, the next is planned when this one is done
+            polling = true;
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(due);
+                }
+            });
+        }
+    };
+
+    /**
+     * Fetches the due parkings one after another, on the worker thread
+     */
+    private void fetch(final List<Track> due) {
+        final int[] results = new int[due.size()];
+        final boolean[] failed = new boolean[due.size()];
+        for (int i = 0; i < due.size(); i++) {
+            Track track = due.get(i);
+            try {
+                results[i] = source.fetchFreeSpaces(track.parkingType, track.id);
+            }
+            catch (IOException e) {
+                failed[i] = true;
+            }
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                polling = false;
+                Map<String, Integer> changed = update(due, results, failed, System.currentTimeMillis());
+                arm();
+                if (!changed.isEmpty()) {
+                    listener.onFreeSpacesChanged(changed);
+                }
+            }
+        });
+    }
+
+    /**
+     * Plans the next fetch of every parking after a round
+     * @return the free spaces that changed, by id
+     */
+    private static Map<String, Integer> update(List<Track> due, int[] results, boolean[] failed, long now) {
+        Map<String, Integer> changed = new LinkedHashMap<>();
+        for (int i = 0; i < due.size(); i++) {
+            Track track = due.get(i);
+            if (failed[i] || results[i] == Parking.NO_VALUE) {
+                // twice as long for every error in a row
+                track.errors = Math.min(track.errors + 1, 10);
+                track.due = now + Math.min(MAX_INTERVAL_MILLIS, track.interval << track.errors);
+                continue;
+            }
+            track.errors = 0;
+            if (results[i] != track.freeSpaces) {
+                track.interval = Math.max(MIN_INTERVAL_MILLIS, track.interval / 2);
+                track.freeSpaces = results[i];
+                changed.put(track.id, results[i]);
+            }
+            else {
+                track.interval = Math.min(MAX_INTERVAL_MILLIS, track.interval * 3 / 2);
+            }
+            long interval = track.interval;
+            if (track.freeSpaces <= FEW_FREE_SPACES) {
+                interval = Math.min(interval, FEW_FREE_SPACES_INTERVAL_MILLIS);
+            }
+            track.due = now + interval;
+        }
+        return changed;
+    }
+}
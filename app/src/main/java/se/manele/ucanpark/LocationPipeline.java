@@ -0,0 +1,203 @@
+package se.manele.ucanpark;
+
+/**
+ * This class decides what to do when the location of the user changes. Locations that
+ * come close together are coalesced, so that the list is re-ranked at most once in a
+ * while. The feeds are only fetched again when the user has moved far enough from where
+ * they were fetched last, so the number of fetches per kilometer is bounded. A fetch
+ * that is still running when the user has moved that far is superseded by a new one.
+ *
+ * The radius of a fetch starts at 800 m. It grows when a fetch finds too few parkings,
+ * and the fetch is made again, and it shrinks for the next fetch where parkings are dense.
+ * A radius that found too few parkings is remembered with the place, and near that place
+ * the radius never shrinks back to it, so a sparse area doesn't cost two fetches every time.
+ *
+ * All methods must be called on the thread the timer runs tasks on, in the app the main thread.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class LocationPipeline {
+    static final int START_RADIUS = 800;
+    static final int MIN_RADIUS = 400;
+    static final int MAX_RADIUS = 3200;
+    // a fetch with fewer parkings than this is made again with a larger radius
+    static final int MIN_RESULTS = 20;
+    // with more parkings than this the next fetch uses a smaller radius
+    static final int DENSE_RESULTS = 200;
+    // the feeds are fetched again when the user has moved this far, or half the radius if that is more
+    static final int MIN_REFETCH_METERS = 200;
+    // locations that come faster than this are coalesced into one
+    static final long COALESCE_MILLIS = 3 * 1000L;
+
+    private final TransitionScheduler.Timer timer;
+    private final Listener listener;
+    private int radius = START_RADIUS;
+    private boolean hasLocation;
+    private double latitude;
+    private double longitude;
+    // where the last fetch was made
+    private boolean hasFetched;
+    private double fetchLatitude;
+    private double fetchLongitude;
+    private boolean fetching;
+    // the largest radius that found too few parkings, around where it was fetched, or 0
+    private int sparseRadius;
+    private double sparseLatitude;
+    private double sparseLongitude;
+    // a location is waiting for the coalescing timer
+    private boolean pending;
+    private long lastUpdateMillis = Long.MIN_VALUE;
+
+    /**
+     * This interface is told what to do with the locations
+     */
+    public interface Listener {
+        /**
+         * The user has moved, the list should be re-ranked
+         */
+        void onRelocate(double latitude, double longitude);
+
+        /**
+         * The feeds should be fetched, onFetchFinished must be called when they are
+         * @param radius the radius in meters
+         */
+        void onFetch(double latitude, double longitude, int radius);
+    }
+
+    /**
+     * The constructor of LocationPipeline
+     * @param timer     runs the coalesced locations
+     * @param listener  told about re-ranks and fetches
+     */
+    public LocationPipeline(TransitionScheduler.Timer timer, Listener listener) {
+        this.timer = timer;
+        this.listener = listener;
+    }
+
+    /**
+     * Takes a new location. The first location is used at once, later ones at most
+     * once every COALESCE_MILLIS, and then only the latest of them.
+     * @param latitude  where the user is
+     * @param longitude where the user is
+     */
+    public void onLocation(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        boolean first = !hasLocation;
+        hasLocation = true;
+        if (pending) {
+            return;
+        }
+        long wait = first ? 0 : lastUpdateMillis + COALESCE_MILLIS - System.currentTimeMillis();
+        if (wait <= 0) {
+            update();
+        }
+        else {
+            pending = true;
+            timer.schedule(coalesced, wait);
+        }
+    }
+
+    /**
+     * Tells how many parkings the last fetch found
+     * @param results the number of parkings
+     */
+    public void onFetchFinished(int results) {
+        fetching = false;
+        if (results < MIN_RESULTS && radius < MAX_RADIUS) {
+            // too few to choose from, the same place is fetched again with a larger radius
+            sparseRadius = radius;
+            sparseLatitude = fetchLatitude;
+            sparseLongitude = fetchLongitude;
+            radius = Math.min(MAX_RADIUS, radius * 2);
+            fetch(fetchLatitude, fetchLongitude);
+            return;
+        }
+        int smaller = Math.max(MIN_RADIUS, radius / 2);
+        // half the radius is a quarter of the area, it should still find enough parkings
+        if (results > DENSE_RESULTS && radius > MIN_RADIUS && results / 4 >= MIN_RESULTS
+                && smaller > getSparseRadius(fetchLatitude, fetchLongitude)) {
+            radius = smaller;
+        }
+        if (hasMovedFromFetch()) {
+            // the user moved on while the feeds were fetched
+            fetch(latitude, longitude);
+        }
+    }
+
+    /**
+     * Fetches the feeds again where the user is, ex. when the app comes back after a while
+     */
+    public void refetch() {
+        if (hasLocation && !fetching) {
+            fetch(latitude, longitude);
+        }
+    }
+
+    /**
+     * @return true if there has been a location
+     */
+    public boolean hasLocation() {
+        return hasLocation;
+    }
+
+    /**
+     * @return the radius of the next fetch
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Stops the coalescing timer
+     */
+    public void stop() {
+        timer.cancel(coalesced);
+        pending = false;
+    }
+
+    private final Runnable coalesced = new Runnable() {
+        @Override
+        public void run() {
+            pending = false;
+            update();
+        }
+    };
+
+    private void update() {
+        lastUpdateMillis = System.currentTimeMillis();
+        listener.onRelocate(latitude, longitude);
+        if (!hasFetched || hasMovedFromFetch()) {
+            // a fetch that is still running is for a place the user has left, FeedFetcher cancels it
+            fetch(latitude, longitude);
+        }
+    }
+
+    /**
+     * @return the radius that found too few parkings near a place, or 0 if there is none
+     */
+    private int getSparseRadius(double latitude, double longitude) {
+        if (sparseRadius == 0) {
+            return 0;
+        }
+        if (DistanceEngine.distance(sparseLatitude, sparseLongitude, latitude, longitude) >= sparseRadius) {
+            // the user has left the sparse area
+            sparseRadius = 0;
+        }
+        return sparseRadius;
+    }
+
+    private boolean hasMovedFromFetch() {
+        int moved = DistanceEngine.distance(fetchLatitude, fetchLongitude, latitude, longitude);
+        return moved >= Math.max(MIN_REFETCH_METERS, radius / 2);
+    }
+
+    private void fetch(double latitude, double longitude) {
+        hasFetched = true;
+        fetching = true;
+        fetchLatitude = latitude;
+        fetchLongitude = longitude;
+        listener.onFetch(latitude, longitude, radius);
+    }
+}
@@ -3,11 +3,12 @@ package se.manele.ucanpark;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.pm.PackageManager;
-import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.location.Location;
-import android.os.AsyncTask;
+import android.net.Uri;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -15,6 +16,7 @@ import android.os.Bundle;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.view.ViewTreeObserver;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationAvailability;
@@ -25,9 +27,16 @@ import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import se.manele.ucanpark.parkingapp.R;
@@ -42,10 +51,25 @@ import se.manele.ucanpark.parkingapp.R;
 public class MainActivity extends AppCompatActivity {
 
     private RecyclerView mRecyclerView;
-    private RecyclerView.Adapter mAdapter;
-    private RecyclerView.LayoutManager mLayoutManager;
-    private ArrayList<Parking> parkings;
+    private ParkingViewAdapter mAdapter;
+    private LinearLayoutManager mLayoutManager;
+    private Handler mainThread;
+    private TransitionScheduler transitions;
+    // the list, the location and the fetches, kept when the activity is created again
+    private ParkingSession session;
+    // the stages of the start, from when the process started
+    private StartupTimeline timeline;
     private static final int LOCATION_REQUEST_CODE = 12345;
+    // the list is re-ranked when the user has moved this far
+    private static final float FOLLOW_DISPLACEMENT_METERS = 20;
+    // how many of the latest measurements dump prints
+    private static final int PERF_DUMP_EVENTS = 100;
+    // the feeds are fetched again when the app comes back after this long
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // a location at least this accurate is good enough to stop asking the GPS
+    private static final float FINE_ACCURACY_METERS = 50;
+    // how long the GPS may take to improve on the first location
+    private static final long REFINE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
 
     /**
      * Called when the activity is starting .
@@ -61,16 +85,37 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // after a rotation the session of the activity before is kept, with its list and the fetches that are running
+        session = (ParkingSession) getLastCustomNonConfigurationInstance();
+        timeline = session != null ? session.getTimeline() : new StartupTimeline(Process.getStartElapsedRealtime());
+        // the start runs in stages that overlap:
+        // 1. the fetch threads look up the host and load the parser, while
+        // 2. Play Services looks for a location, while
+        // 3. the main thread inflates the view and shows the snapshot of the last refresh.
+        // The feeds are fetched as soon as there is a coarse location, a better one only re-ranks the list.
+        mark(StartupTimeline.Stage.ACTIVITY_CREATE);
         setContentView(R.layout.activity_main);
-        mRecyclerView = (RecyclerView) findViewById(R.id.my_recycler_view);
-        mLayoutManager = new LinearLayoutManager(this);
-        mRecyclerView.setLayoutManager(mLayoutManager);
-        Log.i("MainActivity", "After setContentView");
+        mark(StartupTimeline.Stage.CONTENT_VIEW);
+        PerfRecorder.setTracer(new AndroidTracer());
 
-        parkings = new ArrayList<>();
-        mAdapter = new ParkingViewAdapter(MainActivity.this, parkings);
-        mRecyclerView.setAdapter(mAdapter);
+        mainThread = new Handler(Looper.getMainLooper());
+        if (session == null) {
+            List<ParkingFeed.Template> feedTemplates = new ArrayList<>();
+            //feedTemplates.add(new ParkingFeed.Template(getString(R.string.api_url_1), getString(R.string.api_name_1)));
+            feedTemplates.add(new ParkingFeed.Template(getString(R.string.api_url_2), getString(R.string.api_name_2)));
+            feedTemplates.add(new ParkingFeed.Template(getString(R.string.api_url_3), getString(R.string.api_name_3)));
+            feedTemplates.add(new ParkingFeed.Template(getString(R.string.api_url_4), getString(R.string.api_name_4)));
+            feedTemplates.add(new ParkingFeed.Template(getString(R.string.api_url_5), getString(R.string.api_name_5)));
+            // the URL of one parking by parking type, for the types whose free spaces are fetched again
+            Map<String, String> freeSpacesUrls = new HashMap<>();
+            freeSpacesUrls.put(getString(R.string.api_name_2), getString(R.string.api_url_by_id_2));
+            freeSpacesUrls.put(getString(R.string.api_name_3), getString(R.string.api_url_by_id_3));
+            freeSpacesUrls.put(getString(R.string.api_name_4), getString(R.string.api_url_by_id_4));
+            freeSpacesUrls.put(getString(R.string.api_name_5), getString(R.string.api_url_by_id_5));
+            session = newSession(mainThread, feedTemplates, freeSpacesUrls, getFilesDir(), timeline);
+        }
 
+        // the location is answered on the main thread after onCreate has returned
         if (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED || ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             Log.i("MainActivity", "Requesting GPS permission");
             requestPermissions(new String[] { Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION }, LOCATION_REQUEST_CODE);
@@ -79,8 +124,177 @@ public class MainActivity extends AppCompatActivity {
             Log.i("MainActivity", "GPS permission is already granted");
             getLocation();
         }
+
+        mRecyclerView = (RecyclerView) findViewById(R.id.my_recycler_view);
+        mLayoutManager = new LinearLayoutManager(this);
+        mRecyclerView.setLayoutManager(mLayoutManager);
+        Log.i("MainActivity", "After setContentView");
+
+        // the list of the session is shown at once, also after a rotation
+        mAdapter = new ParkingViewAdapter(MainActivity.this, session.getParkings());
+        mRecyclerView.setAdapter(mAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                updateVisibleRows();
+            }
+        });
+        if (!timeline.isMarked(StartupTimeline.Stage.FIRST_FRESH_ROW)) {
+            mRecyclerView.getViewTreeObserver().addOnPreDrawListener(firstRowsListener);
+        }
+
+        // one timer for the next status change of any parking in the list
+        transitions = new TransitionScheduler(newMainTimer(mainThread), new TransitionScheduler.Listener() {
+            @Override
+            public void onTransition(int[] positions, RuleClock clock) {
+                mAdapter.notifyStatusChanged(positions);
+            }
+        });
+        transitions.setParkings(session.getParkings());
+        session.setListener(sessionListener);
+        mark(StartupTimeline.Stage.ACTIVITY_CREATED);
+    }
+
+    /**
+     * Creates the session. It is made in a static method so that the tasks and timers it
+     * is given don't refer to the activity, which is destroyed on every rotation.
+     */
+    private static ParkingSession newSession(final Handler mainThread, List<ParkingFeed.Template> feedTemplates,
+                                             Map<String, String> freeSpacesUrls, File directory, StartupTimeline timeline) {
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThread.post(command);
+            }
+        };
+        ParkingSession session = new ParkingSession(mainExecutor, newMainTimer(mainThread), feedTemplates,
+                new FreeSpacesSource(freeSpacesUrls), directory, timeline);
+        // only the host of the URL is used
+        final String warmUpUrl = feedTemplates.get(0).at(0, 0, 0).getUrl();
+        session.getFeedFetcher().warmUp(new Runnable() {
+            @Override
+            public void run() {
+                NetworkUtils.warmUp(warmUpUrl);
+            }
+        });
+        return session;
+    }
+
+    private static TransitionScheduler.Timer newMainTimer(final Handler mainThread) {
+        return new TransitionScheduler.Timer() {
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                mainThread.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                mainThread.removeCallbacks(task);
+            }
+        };
+    }
+
+    /**
+     * Keeps the session when the activity is destroyed only to be created again, ex. on a rotation
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return session;
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // statuses may have changed while the app wasn't visible
+        mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
+        transitions.start();
+        session.getFreeSpacesPoller().start();
+        if (session.hasLocation()) {
+            session.refreshIfOlderThan(REFRESH_INTERVAL_MILLIS);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        transitions.stop();
+        session.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainThread.removeCallbacks(followTask);
+        if (locationCallback != null) {
+            locationClient.removeLocationUpdates(locationCallback);
+        }
+        session.setListener(null);
+        if (!isChangingConfigurations()) {
+            session.shutdown();
+        }
+    }
+
+    /**
+     * Prints the measurements of PerfRecorder and the startup timeline with
+     * adb shell dumpsys activity se.manele.ucanpark/.MainActivity perf [on|off|reset]
+     * Other arguments are handled as before.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args == null || args.length == 0 || !"perf".equals(args[0])) {
+            super.dump(prefix, fd, writer, args);
+            return;
+        }
+        if (args.length > 1) {
+            if ("on".equals(args[1])) {
+                PerfRecorder.setEnabled(true);
+            }
+            else if ("off".equals(args[1])) {
+                PerfRecorder.setEnabled(false);
+            }
+            else if ("reset".equals(args[1])) {
+                PerfRecorder.reset();
+            }
+        }
+        PerfRecorder.dump(writer, PERF_DUMP_EVENTS);
+        timeline.dump(writer);
+    }
+
+    /**
+     * Marks a stage of the start with the time since the process started
+     */
+    private void mark(StartupTimeline.Stage stage) {
+        if (timeline.mark(stage, SystemClock.elapsedRealtime())) {
+            Log.i("Startup", stage + " after " + timeline.getMillis(stage) + " ms");
+        }
     }
 
+    /**
+     * Marks when the first row and the first row from the network are drawn, and then
+     * stops listening
+     */
+    private final ViewTreeObserver.OnPreDrawListener firstRowsListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            if (mAdapter.getItemCount() > 0) {
+                mark(StartupTimeline.Stage.FIRST_ROW);
+                if (session.hasFreshRows()) {
+                    mark(StartupTimeline.Stage.FIRST_FRESH_ROW);
+                    Log.i("Startup", timeline.toString());
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Tells the poller which rows are on the screen
+     */
+    private void updateVisibleRows() {
+        session.getFreeSpacesPoller().setVisible(session.getParkings(), mLayoutManager.findFirstVisibleItemPosition(),
+                mLayoutManager.findLastVisibleItemPosition());
+    }
 
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
@@ -94,13 +308,30 @@ public class MainActivity extends AppCompatActivity {
     private void getLocation() {
         Log.i("MainActivity", "Requesting location");
         // Get the location provider client
-        final FusedLocationProviderClient locationProviderClient = LocationServices.getFusedLocationProviderClient(this);
-        // Get the last known location from the operating system
-        locationProviderClient.getLastLocation().addOnSuccessListener(new OnSuccessListener<Location>() {
+        locationClient = LocationServices.getFusedLocationProviderClient(this);
+        if (session.isFollowing()) {
+            // the activity was created again, the location is already refined
+            follow();
+            return;
+        }
+        if (session.hasLocation()) {
+            refine();
+            return;
+        }
+        // a coarse location from wifi and cell towers comes within seconds, the GPS may take much longer,
+        // so the feeds are started with a coarse location and the GPS is asked afterwards
+        LocationRequest coarseRequest = new LocationRequest()
+                .setInterval(TimeUnit.SECONDS.toMillis(1))
+                .setFastestInterval(TimeUnit.SECONDS.toMillis(1))
+                .setExpirationDuration(TimeUnit.SECONDS.toMillis(60))
+                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+        requestLocationUpdates(coarseRequest);
+        // at the same time, get the last known location from the operating system
+        locationClient.getLastLocation().addOnSuccessListener(new OnSuccessListener<Location>() {
             @Override
             public void onSuccess(Location location) {
                 Log.i("MainActivity", "lastLocation Success");
-                getApiData(location, locationProviderClient);
+                getApiData(location);
             }
         }).addOnFailureListener(new OnFailureListener() {
             @Override
@@ -110,69 +341,154 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private Location location = null;
+    private FusedLocationProviderClient locationClient;
+    private LocationCallback locationCallback;
 
-    @SuppressLint("MissingPermission")
-    private void getApiData(Location location, final FusedLocationProviderClient locationProviderClient) {
-        if (location != null && this.location == null) {
+    private void getApiData(Location location) {
+        if (location != null && !session.hasLocation()) {
             Log.i("Location", "LastLocation result: " + location.toString());
-            double lat = location.getLatitude();
-            double lng = location.getLongitude();
+            mark(StartupTimeline.Stage.LOCATION);
+            // the snapshot shown at start was measured from where the app was used last time,
+            // the first location re-ranks it and starts the first fetch at once
+            session.onLocation(location.getLatitude(), location.getLongitude());
 
-            //new XmlPull(getString(R.string.api_url_1), getString(R.string.api_name_1)).execute();
-            new XmlPull(R.string.api_url_2, getString(R.string.api_name_2), lat, lng, 800).execute();
-            new XmlPull(R.string.api_url_3, getString(R.string.api_name_3), lat, lng, 800).execute();
-            new XmlPull(R.string.api_url_4, getString(R.string.api_name_4), lat, lng, 800).execute();
-            new XmlPull(R.string.api_url_5, getString(R.string.api_name_5), lat, lng, 800).execute();
+            if (isFine(location)) {
+                follow();
+            }
+            else {
+                refine();
+            }
+        }
+        else if (location != null) {
+            // the feeds are only fetched again when the user has moved far enough,
+            // a refined location usually only re-ranks the list
+            session.onLocation(location.getLatitude(), location.getLongitude());
+            if (!session.isFollowing() && isFine(location)) {
+                mark(StartupTimeline.Stage.FINE_LOCATION);
+                follow();
+            }
         }
-        else if (this.location == null) {
+        else if (!session.hasLocation()) {
             Log.i("Location", "Null");
-            // Subscribe to location updates
-            LocationRequest locationRequest = new LocationRequest()
-                    .setInterval(TimeUnit.SECONDS.toMillis(1))
-                    .setFastestInterval(TimeUnit.SECONDS.toMillis(1))
-                    .setExpirationTime(TimeUnit.SECONDS.toMillis(60))
-                    .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-
-            locationProviderClient.requestLocationUpdates(locationRequest, new LocationCallback() {
+        }
+    }
+
+    private static boolean isFine(Location location) {
+        return location.hasAccuracy() && location.getAccuracy() <= FINE_ACCURACY_METERS;
+    }
+
+    /**
+     * The GPS refines the location, if it can't within the timeout the coarse one is followed
+     */
+    private void refine() {
+        LocationRequest refineRequest = new LocationRequest()
+                .setInterval(TimeUnit.SECONDS.toMillis(1))
+                .setFastestInterval(TimeUnit.SECONDS.toMillis(1))
+                .setExpirationDuration(REFINE_TIMEOUT_MILLIS)
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+        requestLocationUpdates(refineRequest);
+        mainThread.postDelayed(followTask, REFINE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * From now on the list follows the user
+     */
+    private void follow() {
+        session.setFollowing(true);
+        mainThread.removeCallbacks(followTask);
+        LocationRequest followRequest = new LocationRequest()
+                .setInterval(TimeUnit.SECONDS.toMillis(10))
+                .setFastestInterval(TimeUnit.SECONDS.toMillis(2))
+                .setSmallestDisplacement(FOLLOW_DISPLACEMENT_METERS)
+                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+        requestLocationUpdates(followRequest);
+    }
+
+    private final Runnable followTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!session.isFollowing()) {
+                follow();
+            }
+        }
+    };
+
+    /**
+     * Subscribes to location updates. There is only one callback, so a new request
+     * replaces the one before it.
+     */
+    @SuppressLint("MissingPermission")
+    private void requestLocationUpdates(LocationRequest locationRequest) {
+        if (locationCallback == null) {
+            locationCallback = new LocationCallback() {
                 @Override
                 public void onLocationResult(LocationResult result) {
                     Log.i("LocationUpdates", "onLocationResult");
-                    getApiData(result.getLastLocation(), locationProviderClient);
+                    getApiData(result.getLastLocation());
                 }
 
                 @Override
                 public void onLocationAvailability(LocationAvailability availability) {
                     Log.i("LocationUpdates", "onLocationAvailability: " + availability.isLocationAvailable());
                 }
-            }, Looper.myLooper());
-
+            };
         }
+        locationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.myLooper());
     }
 
-    private class XmlPull extends AsyncTask<Void, Void, ArrayList<Parking>>{
-        private String url;
-        private String parkingTypeName;
+    private final ParkingSession.Listener sessionListener = new ParkingSession.Listener() {
+        @Override
+        public void onResultsChanged(ParkingStore parkings, List<ParkingResults.Change> changes, ParkingResults.Counts counts) {
+            Log.i("ParkingResults", parkings.size() + " parkings, " + counts);
+            mAdapter.setParkings(parkings, changes);
+            transitions.setParkings(parkings);
+            updateVisibleRows();
+        }
+
+        @Override
+        public void onFetchStarted() {
+            mark(StartupTimeline.Stage.FEEDS_STARTED);
+        }
+
+        @Override
+        public void onFeedFinished(ParkingFeed feed, int parkings, boolean timedOut) {
+            if (timedOut) {
+                Log.w("FeedFetcher", feed + " timed out after " + parkings + " parkings");
+            }
+            else {
+                Log.i("FeedFetcher", feed + " finished with " + parkings + " parkings");
+            }
+        }
+
+        @Override
+        public void onAllFeedsFinished(int parkings) {
+            Log.i("FeedFetcher", "All feeds finished with " + parkings + " parkings");
+            for (Map.Entry<String, ParkingHttpClient.FeedStats> stats : NetworkUtils.getHttpStats().entrySet()) {
+                Log.i("FeedFetcher", stats.getKey() + ": " + stats.getValue());
+            }
+        }
+    };
+
+    /**
+     * Fetches the free spaces of one parking. It only keeps the URLs, so the session
+     * that holds it doesn't refer to the activity.
+     */
+    private static class FreeSpacesSource implements FreeSpacesPoller.Source {
+        private final Map<String, String> urls;
 
-        public XmlPull(int stringResourceId, String parkingTypeName, double latitude, double longitude, int radius) {
-            Configuration config = new Configuration(getResources().getConfiguration());
-            config.setLocale(Locale.ROOT);
-            Resources res = createConfigurationContext(config).getResources();
-            this.url = res.getString(stringResourceId, latitude, longitude, radius);
-            Log.i("XmlPull", url);
-            this.parkingTypeName = parkingTypeName;
+        FreeSpacesSource(Map<String, String> urls) {
+            this.urls = urls;
         }
 
         @Override
-        protected ArrayList<Parking> doInBackground(Void... voids) {
-            return NetworkUtils.fetchParkingData(url, parkingTypeName);
+        public boolean canFetch(String parkingType) {
+            return urls.containsKey(parkingType);
         }
 
         @Override
-        protected synchronized void onPostExecute(ArrayList<Parking> parkings) {
-            MainActivity.this.parkings.addAll(parkings);
-            Collections.sort(MainActivity.this.parkings, Parking.DistanceComparator); //Compares the distances and sorts list by ascending order
-            mAdapter.notifyDataSetChanged();
+        public int fetchFreeSpaces(String parkingType, String id) throws IOException {
+            String url = String.format(Locale.ROOT, urls.get(parkingType), Uri.encode(id));
+            return NetworkUtils.fetchFreeSpaces(url, parkingType);
         }
     }
 }
@@ -3,9 +3,16 @@ package se.manele.ucanpark;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class is a helper class with the purpose of fetching and parsing
@@ -15,100 +22,327 @@ import java.util.ArrayList;
  * @author Elena Marzi
  */
 public final class NetworkUtils {
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10 * 1000;
+
+    // shared by all feeds so that connections and cached responses are reused
+    private static final ParkingHttpClient httpClient = new ParkingHttpClient(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    // responses for one parking are many and small, they get their own cache so that they don't push the feeds out
+    private static final ParkingHttpClient freeSpacesClient = new ParkingHttpClient(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+
+    // the tags of a parking that we use
+    private static final int TAG_UNKNOWN = 0;
+    private static final int TAG_ID = 1;
+    private static final int TAG_NAME = 2;
+    private static final int TAG_PARKING_SPACES = 3;
+    private static final int TAG_FREE_SPACES = 4;
+    private static final int TAG_DISTANCE = 5;
+    private static final int TAG_LAT = 6;
+    private static final int TAG_LONG = 7;
+    private static final int TAG_EXTRA_INFO = 8;
+    private static final Map<String, Integer> TAGS = new HashMap<>();
+    static {
+        TAGS.put("Id", TAG_ID);
+        TAGS.put("Name", TAG_NAME);
+        TAGS.put("ParkingSpaces", TAG_PARKING_SPACES);
+        TAGS.put("FreeSpaces", TAG_FREE_SPACES);
+        TAGS.put("Distance", TAG_DISTANCE);
+        TAGS.put("Lat", TAG_LAT);
+        TAGS.put("Long", TAG_LONG);
+        TAGS.put("ExtraInfo", TAG_EXTRA_INFO);
+    }
+
+    // returned by parseInt for text that isn't an int
+    static final long NOT_A_NUMBER = Long.MIN_VALUE;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    // parsed by warmUp
+    private static final String WARM_UP_PARKING = "Parking";
+    private static final byte[] WARM_UP_FEED =
+            "<ArrayOfParking><Parking><Id>0</Id><Lat>57.7</Lat></Parking></ArrayOfParking>".getBytes(Charset.forName("UTF-8"));
+
+    private static final XmlPullParserFactory parserFactory = createParserFactory();
+
+    // every fetching thread keeps its own parser
+    private static final ThreadLocal<ParserState> parserState = new ThreadLocal<ParserState>() {
+        @Override
+        protected ParserState initialValue() {
+            try {
+                return new ParserState(parserFactory.newPullParser());
+            }
+            catch (XmlPullParserException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     private NetworkUtils(){
 
     }
 
+    /**
+     * This method prepares the thread it runs on for fetching feeds, before any feed is
+     * asked for. The parser of the thread is created and run on a tiny document, so its
+     * classes are loaded, and the host of the URL is looked up so that its address is cached.
+     * @param api_url any URL of the API
+     */
+    public static void warmUp(String api_url) {
+        try {
+            parseParkingData(new ByteArrayInputStream(WARM_UP_FEED), WARM_UP_PARKING, new ParkingSink() {
+                @Override
+                public boolean add(Parking parking) {
+                    return true;
+                }
+            });
+            InetAddress.getByName(new URL(api_url).getHost());
+        }
+        catch (XmlPullParserException | IOException e) {
+            // the first fetch does the same, only slower
+        }
+    }
+
     /**
      * This method fetches a stream from the API URL and parses the data
      * into Parking objects inside of an ArrayList. To change the data being fetched
      * and returned, you have to change the specified URL inside the method.
+     * If the feed hasn't changed since the last time the same URL was fetched,
+     * the parkings parsed last time are returned.
      * @return  returns an ArrayList<Parking>
      */
-    public static ArrayList<Parking> fetchParkingData(String api_url, String parkingName){
-        Parking currParking = null;
-        String currText = "";
-        ArrayList<Parking> parkings = new ArrayList<>();
-
-        // Clear the list of parkings so that the list is empty
-        //before every time parkings are fetched
-        parkings.clear();
+    public static ArrayList<Parking> fetchParkingData(String api_url, final String parkingName){
+        final ArrayList<Parking> parkings = new ArrayList<>();
 
         try {
             //url is located in resources
-            URL url = new URL(api_url);
+            ArrayList<Parking> result = httpClient.get(api_url, new ParkingHttpClient.ResponseParser<ArrayList<Parking>>() {
+                @Override
+                public ArrayList<Parking> parse(InputStream in) throws IOException, XmlPullParserException {
+                    parseParkingData(in, parkingName, new ParkingSink() {
+                        @Override
+                        public boolean add(Parking parking) {
+                            parkings.add(parking);
+                            return true;
+                        }
+                    });
+                    return parkings;
+                }
+            });
+            if (result != parkings) {
+                // the cached parkings of an earlier call may already be shown, so they are copied
+                return copies(result);
+            }
+            return new ArrayList<>(result);
+        } catch (XmlPullParserException | IOException e) {
+            /*Parking p = new Parking();
+            p.setName("Network error");
+            parkings.add(p);*/
+        }
+        return parkings;
+    }
 
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(false);
-            XmlPullParser xpp = factory.newPullParser();
-            // Fetches the XML-file as an input stream
-            xpp.setInput(url.openConnection().getInputStream(), "UTF_8");
+    /**
+     * This method fetches a feed like fetchParkingData, but hands every parking to the stream
+     * as soon as its closing tag has been parsed instead of returning them all at the end.
+     * It returns when the feed has been read, the stream is cancelled or an error occurs.
+     * Cancelling the stream also closes the connection, so a blocked read returns at once.
+     * @param api_url       the URL of the feed
+     * @param parkingName   the tag of one parking
+     * @param stream        gets the parkings in batches
+     */
+    public static void streamParkingData(String api_url, final String parkingName, final ParkingStream stream) {
+        boolean complete = false;
+        try {
+            final ArrayList<Parking> parkings = new ArrayList<>();
+            ArrayList<Parking> result = httpClient.get(api_url, null, new ParkingHttpClient.ResponseParser<ArrayList<Parking>>() {
+                @Override
+                public ArrayList<Parking> parse(InputStream in) throws IOException, XmlPullParserException {
+                    parseParkingData(in, parkingName, new ParkingSink() {
+                        @Override
+                        public boolean add(Parking parking) {
+                            parkings.add(parking);
+                            return stream.add(parking);
+                        }
+                    });
+                    // a cancelled feed is not complete, so it must not be reused on 304
+                    return stream.isCancelled() ? null : parkings;
+                }
+            }, stream.getCall());
+            if (result != parkings && result != null) {
+                // nothing has changed, copies of the parkings from last time are streamed instead,
+                // the parkings themselves may already be shown
+                for (Parking parking : result) {
+                    if (!stream.add(new Parking(parking))) {
+                        break;
+                    }
+                }
+            }
+            complete = !stream.isCancelled();
+        } catch (XmlPullParserException | IOException e) {
+            // the stream ends with what was parsed before the error
+        }
+        stream.finish(complete);
+    }
+
+    /**
+     * This method fetches a feed like streamParkingData, but only the limit best parkings
+     * by Parking.DistanceComparator are kept while it is parsed. They are handed to the
+     * stream, best first, when the whole feed has been read. The result is cached by URL
+     * and limit, apart from the whole feeds of the same URL.
+     * @param api_url       the URL of the feed
+     * @param parkingName   the tag of one parking
+     * @param limit         how many parkings to keep
+     * @param stream        gets the parkings
+     */
+    public static void streamTopParkingData(String api_url, final String parkingName, final int limit, final ParkingStream stream) {
+        boolean complete = false;
+        try {
+            List<Parking> result = httpClient.get(api_url, "top " + limit, new ParkingHttpClient.ResponseParser<List<Parking>>() {
+                @Override
+                public List<Parking> parse(InputStream in) throws IOException, XmlPullParserException {
+                    final TopKCollector top = new TopKCollector(limit);
+                    parseParkingData(in, parkingName, new ParkingSink() {
+                        @Override
+                        public boolean add(Parking parking) {
+                            return !stream.isCancelled() && top.add(parking);
+                        }
+                    });
+                    // a cancelled feed is not complete, so it must not be reused on 304
+                    return stream.isCancelled() ? null : top.takeSorted();
+                }
+            }, stream.getCall());
+            if (result != null) {
+                // the result is also the cached list, so the parkings are copied before they can be shown
+                for (Parking parking : result) {
+                    if (!stream.add(new Parking(parking))) {
+                        break;
+                    }
+                }
+            }
+            complete = !stream.isCancelled();
+        } catch (XmlPullParserException | IOException e) {
+            // nothing is handed on, the best parkings are only known at the end
+        }
+        stream.finish(complete);
+    }
+
+    /**
+     * Copies a cached result, the same parkings are handed out on every 304
+     */
+    private static ArrayList<Parking> copies(List<Parking> parkings) {
+        ArrayList<Parking> copies = new ArrayList<>(parkings.size());
+        for (Parking parking : parkings) {
+            copies.add(new Parking(parking));
+        }
+        return copies;
+    }
+
+    /**
+     * This method fetches one parking and returns only its free spaces. The other fields
+     * of the parking are not used, they are already in the list.
+     * @param api_url       the URL of the parking
+     * @param parkingName   the tag of the parking
+     * @return the free spaces, or Parking.NO_VALUE if the API doesn't send them
+     * @throws IOException if the parking couldn't be fetched
+     */
+    public static int fetchFreeSpaces(String api_url, final String parkingName) throws IOException {
+        try {
+            return freeSpacesClient.get(api_url, new ParkingHttpClient.ResponseParser<Integer>() {
+                @Override
+                public Integer parse(InputStream in) throws IOException, XmlPullParserException {
+                    final int[] freeSpaces = { Parking.NO_VALUE };
+                    parseParkingData(in, parkingName, new ParkingSink() {
+                        @Override
+                        public boolean add(Parking parking) {
+                            freeSpaces[0] = parking.getRawFreeSpots();
+                            // there is only one parking
+                            return false;
+                        }
+                    });
+                    return freeSpaces[0];
+                }
+            });
+        }
+        catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Method for getting the download statistics of every feed
+     * @return statistics by feed URL
+     */
+    public static Map<String, ParkingHttpClient.FeedStats> getHttpStats() {
+        return httpClient.getStats();
+    }
+
+    /**
+     * This method parses an XML stream from the API into Parking objects.
+     * Tags are looked up once in a table, numbers are read straight from the parser's
+     * buffer and the text of tags we don't use is never turned into Strings, so
+     * parsing creates almost no garbage besides the parkings themselves.
+     * @param in            the XML stream
+     * @param parkingName   the tag of one parking
+     * @param parkings      the parkings are added here as they are parsed
+     */
+    static void parseParkingData(InputStream in, String parkingName, ParkingSink parkings) throws XmlPullParserException, IOException {
+        ParserState state = parserState.get();
+        XmlPullParser xpp = state.parser;
+        int[] startAndLength = state.startAndLength;
+        Parking currParking = null;
+        // the tag we are inside, only tags inside a parking are looked up
+        int currTag = TAG_UNKNOWN;
+        int elements = 0;
+
+        // Parses the XML-file from the input stream
+        long parse = PerfRecorder.begin("parse");
+        xpp.setInput(in, "UTF-8");
+        try {
             int eventType = xpp.getEventType();
             while (eventType != XmlPullParser.END_DOCUMENT) {
-                // Retrieves and stores the current tag in the XML stream
-                String tagname = xpp.getName();
                 // Depending on what tag we are inside, we'll take different action in the following switch case structure
                 switch (eventType) {
 
                     case XmlPullParser.START_TAG:
+                        String tagname = xpp.getName();
                         if (tagname.equalsIgnoreCase(parkingName)) {
                             currParking = new Parking();
+                            currParking.setParkingType(parkingName);
+                            currTag = TAG_UNKNOWN;
+                        }
+                        else if (currParking != null) {
+                            currTag = getTag(tagname);
                         }
                         break;
 
                     case XmlPullParser.TEXT:
-                        // Retrieves and stores the text between the tags, to be used in the next case
-                        currText = xpp.getText();
+                        if (currTag == TAG_UNKNOWN) {
+                            // text we don't use, ex. whitespace between tags, is skipped
+                            break;
+                        }
+                        if (currTag == TAG_ID || currTag == TAG_NAME || currTag == TAG_EXTRA_INFO) {
+                            setText(currParking, currTag, xpp.getText());
+                        }
+                        else {
+                            char[] text = xpp.getTextCharacters(startAndLength);
+                            setNumber(currParking, currTag, text, startAndLength[0], startAndLength[1]);
+                        }
                         break;
 
                     case XmlPullParser.END_TAG:
-                        if (tagname.equalsIgnoreCase(parkingName)) {
+                        currTag = TAG_UNKNOWN;
+                        if (currParking != null && xpp.getName().equalsIgnoreCase(parkingName)) {
                             // If we are at the end of the current parking tag
                             // (</PrivateParking>, we add the current parking object
-                            // to the ArrayList of parkings
-                            parkings.add(currParking);
-                        } else if (tagname.equalsIgnoreCase("Id")) {
-                            // If we are the end of the "Id" section (</Id>) we store
-                            // the Id text in our current parking object
-                            currParking.setId(currText);
-                        } else if (tagname.equalsIgnoreCase("Name")) {
-                            // If we are the end of the "name" section (</Name>) we store
-                            // the name text in our current parking object
-                            currParking.setName(currText);
-                        } else if (tagname.equalsIgnoreCase("ParkingSpaces")) {
-                            // If we are at the end of the "ParkingSpaces" section (</ParkingSpaces>)
-                            // we store the number of spaces in our current parking object.
-                            // IN THE FUTURE WE PROBABLY WAN'T TO CHANGE THIS TO __FREE SPACES__ (</FreeSpaces>).
-                            // Right now we don't do that since almost no parkings have that data.
-                            currParking.setParkingSpots(Integer.valueOf(currText));
-                        } else if (tagname.equalsIgnoreCase("FreeSpaces")) {
-                            // If we are the end of the "ParkingSpots" section (</ParkingSpots>) we store
-                            // the ParkingSpots amount as a string in our current parking object
-                            currParking.setFreeSpots(Integer.valueOf(currText));
-                        } else if (tagname.equalsIgnoreCase("Parkingcost")) {
-                            // If we are the end of the "ExtraInfo" section (</ExtraInfo>) we store
-                            // the ExtraInfo text in our current parking object
-                            //currParking.setExtraInformation(currText);
-                        } else if (tagname.equalsIgnoreCase("Distance")) {
-                            // If we are the end of the "Distance" section (</Distance>) we store
-                            // the Distance as an int since we want to compare our current parking objects
-                            currParking.setDistance(Integer.parseInt(currText));
-                        } else if (tagname.equalsIgnoreCase("Lat")) {
-                            // If we are the end of the "Lat" section (</Lat>) we store
-                            // the Latitude as a double since we want to use it to calculate distance
-                            currParking.setLatitude(Double.parseDouble(currText));
-                        } else if (tagname.equalsIgnoreCase("Long")) {
-                            // If we are the end of the "Long" section (</Long>) we store
-                            // the longitude as a double since we want to use it to calculate distance
-                            currParking.setLongitude(Double.parseDouble(currText));
-                        } else if (tagname.equalsIgnoreCase("ExtraInfo")) {
-                            // If we are the end of the "ExtraInfo" section (</ExtraInfo>) we store
-                            // the extra information so that we can parse parking time rules
-                            currParking.setExtraInformation(currText);
+                            // to the parkings, and stop if no more parkings are wanted
+                            Parking parking = currParking;
+                            currParking = null;
+                            elements++;
+                            if (!parkings.add(parking)) {
+                                return;
+                            }
                         }
-                            //Add more else if cases when more tags are needed, just follow the examples above.
-
-
                         break;
 
                     default:
@@ -117,13 +351,209 @@ public final class NetworkUtils {
                 // Moves to the next element in the XML stream
                 eventType = xpp.next();
             }
+        }
+        finally {
+            // the parser is kept for the next feed, but not the stream
+            xpp.setInput(null);
+            PerfRecorder.end(PerfRecorder.Metric.PARSE, parkingName, parse);
+            PerfRecorder.record(PerfRecorder.Metric.ELEMENTS, parkingName, elements);
+        }
+    }
 
-        } catch (XmlPullParserException | IOException e) {
-            /*Parking p = new Parking();
-            p.setName("Network error");
-            parkings.add(p);*/
+    /**
+     * Stores the text of a tag in the parking
+     */
+    private static void setText(Parking parking, int tag, String text) {
+        switch (tag) {
+            case TAG_ID:
+                // the Id is used to retrieve information and set the rules
+                parking.setId(text);
+                break;
+            case TAG_NAME:
+                parking.setName(text);
+                break;
+            case TAG_EXTRA_INFO:
+                // only the text is kept, the parking time rules in it are compiled when they are first needed
+                parking.setExtraInformation(text);
+                break;
         }
-        return parkings;
     }
 
+    /**
+     * Stores the number in a tag in the parking. Text that isn't a number is ignored.
+     */
+    private static void setNumber(Parking parking, int tag, char[] text, int start, int length) {
+        switch (tag) {
+            case TAG_PARKING_SPACES:
+                // IN THE FUTURE WE PROBABLY WAN'T TO CHANGE THIS TO __FREE SPACES__ (</FreeSpaces>).
+                // Right now we don't do that since almost no parkings have that data.
+                long spaces = parseInt(text, start, length);
+                if (spaces != NOT_A_NUMBER) {
+                    parking.setParkingSpots((int) spaces);
+                }
+                break;
+            case TAG_FREE_SPACES:
+                long freeSpaces = parseInt(text, start, length);
+                if (freeSpaces != NOT_A_NUMBER) {
+                    parking.setFreeSpots((int) freeSpaces);
+                }
+                break;
+            case TAG_DISTANCE:
+                // the Distance is an int since we want to compare our current parking objects
+                long distance = parseInt(text, start, length);
+                if (distance != NOT_A_NUMBER) {
+                    parking.setDistance((int) distance);
+                }
+                break;
+            case TAG_LAT:
+                // the Latitude is a double since we want to use it to calculate distance
+                double latitude = parseDouble(text, start, length);
+                if (!Double.isNaN(latitude)) {
+                    parking.setLatitude(latitude);
+                }
+                break;
+            case TAG_LONG:
+                double longitude = parseDouble(text, start, length);
+                if (!Double.isNaN(longitude)) {
+                    parking.setLongitude(longitude);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Looks up the id of a tag. The API always uses the same case, so the table is
+     * tried first and the case-insensitive comparison is only made for other spellings.
+     * Add more tags here and in setText or setNumber when more tags are needed.
+     */
+    private static int getTag(String tagname) {
+        Integer tag = TAGS.get(tagname);
+        if (tag != null) {
+            return tag;
+        }
+        for (Map.Entry<String, Integer> entry : TAGS.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(tagname)) {
+                return entry.getValue();
+            }
+        }
+        return TAG_UNKNOWN;
+    }
+
+    /**
+     * Reads an int from a part of a char array, like Integer.parseInt but without a String
+     * @return the number, or NOT_A_NUMBER if the text isn't an int
+     */
+    static long parseInt(char[] text, int start, int length) {
+        int end = start + length;
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && (text[start] == '-' || text[start] == '+')) {
+            negative = text[start] == '-';
+            start++;
+        }
+        if (start == end || end - start > 10) {
+            return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            if (c < '0' || c > '9') {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_A_NUMBER : value;
+    }
+
+    /**
+     * Reads a double from a part of a char array. Plain decimals with at most 15 digits,
+     * like coordinates, are read directly and give exactly the same value as
+     * Double.parseDouble, other numbers are handed to Double.parseDouble.
+     * @return the number, or NaN if the text isn't a number
+     */
+    static double parseDouble(char[] text, int start, int length) {
+        int end = start + length;
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text[i] == '-' || text[i] == '+')) {
+            negative = text[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < end; i++) {
+            char c = text[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            }
+            else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            }
+            else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && digits <= 15) {
+            // both numbers are exact doubles, so the division is correctly rounded
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(text, start, end - start));
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * This interface receives the parkings as they are parsed
+     */
+    interface ParkingSink {
+        /**
+         * @param parking a parsed parking
+         * @return false to stop parsing
+         */
+        boolean add(Parking parking);
+    }
+
+    private static XmlPullParserFactory createParserFactory() {
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            return factory;
+        }
+        catch (XmlPullParserException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A parser and the array it reports text positions in, kept by each thread
+     */
+    private static class ParserState {
+        final XmlPullParser parser;
+        final int[] startAndLength = new int[2];
+
+        ParserState(XmlPullParser parser) {
+            this.parser = parser;
+        }
+    }
 }
@@ -1,13 +1,6 @@
 package se.manele.ucanpark;
 
-import android.support.annotation.NonNull;
-
-import org.joda.time.DateTimeConstants;
-import org.joda.time.Instant;
-
 import java.util.Comparator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class is responsible to handle data concerning a parking spot.
@@ -20,17 +13,49 @@ public class Parking {
     private String id;
     private String name;
     private String extraInformation;
-    private Integer parkingspots;
+    private int parkingspots = NO_VALUE;
     private int distance;
     private double latitude;
     private double longitude;
     private ParkingTimeRules rules;
-    private Integer freeSpots;
+    // false until the rule has been compiled from extraInformation, which is done when it is first needed
+    private volatile boolean rulesCompiled = true;
+    private int freeSpots = NO_VALUE;
+    // the tag the parking had in the API, ex. PublicTollParking
+    private String parkingType;
+    // the last computed status, it stays the same from statusFrom until the rule changes at statusUntil
+    private ParkingStatus status;
+    private long statusFrom;
+    private long statusUntil;
+
+    // stored in parkingspots and freeSpots when the API didn't send a value
+    static final int NO_VALUE = Integer.MIN_VALUE;
 
     public Parking() {
 
     }
 
+    /**
+     * Copies another parking, the rule is shared. The status is not copied, the copy
+     * computes its own, since the status is only remembered on the main thread.
+     * @param other the parking to copy
+     */
+    Parking(Parking other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.extraInformation = other.extraInformation;
+        this.parkingspots = other.parkingspots;
+        this.distance = other.distance;
+        this.latitude = other.latitude;
+        this.longitude = other.longitude;
+        // read first, so that a rule compiled meanwhile is either copied or compiled again
+        boolean compiled = other.rulesCompiled;
+        this.rules = other.rules;
+        this.rulesCompiled = compiled;
+        this.freeSpots = other.freeSpots;
+        this.parkingType = other.parkingType;
+    }
+
     /**
      * set id and test data - phase 1-
      * id comes from API and it is uses to retrive information and set the rules
@@ -44,11 +69,11 @@ public class Parking {
         //THIS PARKING IS USED TO DEMONSTRATE THE FORBIDDEN PARKING
         if (id.equals("1480 2016-00506")) {
             rules = new ParkingTimeRules(DayOfWeek.THURSDAY, 8, 0, 20, 0, true, true, 1, 1, 12, 31);
-            rules.addWeekDay(DayOfWeek.MONDAY);
-            rules.addWeekDay(DayOfWeek.TUESDAY);
-            rules.addWeekDay(DayOfWeek.WEDNESDAY);
-            rules.addWeekDay(DayOfWeek.THURSDAY);
-            rules.addWeekDay(DayOfWeek.FRIDAY);
+            rules = rules.withWeekDay(DayOfWeek.MONDAY);
+            rules = rules.withWeekDay(DayOfWeek.TUESDAY);
+            rules = rules.withWeekDay(DayOfWeek.WEDNESDAY);
+            rules = rules.withWeekDay(DayOfWeek.THURSDAY);
+            rules = rules.withWeekDay(DayOfWeek.FRIDAY);
 
         }
 
@@ -109,10 +134,41 @@ public class Parking {
      * @return ParkingStatus one of four possible statuses, from ParkingStatus enum.
      */
     public ParkingStatus getParkingStatus() {
-        if (rules != null && rules.isParkingForbidden(Instant.now())) {
+        return getParkingStatus(RuleClock.now());
+    }
+
+    /**
+     * Returns the status at a tick. The status is remembered until the next transition
+     * of the rule, so asking again before then doesn't check the rule again.
+     * @param clock the time of the tick
+     * @return ParkingStatus one of four possible statuses, from ParkingStatus enum.
+     */
+    public ParkingStatus getParkingStatus(RuleClock clock) {
+        long millis = clock.getMillis();
+        if (status == null || millis < statusFrom || millis >= statusUntil) {
+            status = computeParkingStatus(clock);
+            statusFrom = millis;
+            statusUntil = getNextTransition(clock);
+        }
+        return status;
+    }
+
+    /**
+     * Method for getting when the status can change next because of the rule
+     * @param clock the time of the tick to look from
+     * @return the time of the next transition, or ParkingTimeRules.NO_TRANSITION
+     */
+    long getNextTransition(RuleClock clock) {
+        ParkingTimeRules rules = getRules();
+        return rules == null ? ParkingTimeRules.NO_TRANSITION : rules.nextTransitionMillis(clock);
+    }
+
+    private ParkingStatus computeParkingStatus(RuleClock clock) {
+        ParkingTimeRules rules = getRules();
+        if (rules != null && rules.isParkingForbidden(clock)) {
             return ParkingStatus.PARKING_FORBIDDEN;
         }
-        if (freeSpots == null) {
+        if (freeSpots == NO_VALUE) {
             return ParkingStatus.PARKING_ALLOWED;
         }
         if (freeSpots == 0) {
@@ -156,6 +212,27 @@ public class Parking {
         this.name = name;
     }
 
+    /**
+     * Method for checking if another parking has the same values as this one, ex. when
+     * the same parking comes again in a refresh. The id is not compared, and neither is
+     * the rule, it follows from the text and is not compiled just to be compared.
+     * @param other the other parking
+     * @return true if nothing that is shown differs
+     */
+    boolean hasSameValues(Parking other) {
+        return parkingspots == other.parkingspots
+                && freeSpots == other.freeSpots
+                && distance == other.distance
+                && latitude == other.latitude
+                && longitude == other.longitude
+                && equals(name, other.name)
+                && equals(extraInformation, other.extraInformation);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     /**
      * Method for getting extra information of a parking spot
      * @return extra information
@@ -165,138 +242,139 @@ public class Parking {
     }
 
     /**
-     * Method for setting the distance of a parking object
+     * Method for setting the extra information of a parking. Only the text is kept, the
+     * rule in it is compiled the first time it is needed, so parkings that are never
+     * shown, ex. dropped from a large feed or replaced by the next refresh, cost nothing.
      * @param extraInformation
      */
     public void setExtraInformation(String extraInformation) {
+        this.status = null;
         this.extraInformation = extraInformation;
-        Matcher match = getMatcher(extraInformation);
-
-        if (match.find()) {
-            String weekday = match.group(1);
-            int day = getDayOfWeek(weekday);
-
-            int startHour = Integer.parseInt(match.group(2), 10);
-            int startMinute = Integer.parseInt(match.group(3), 10);
-            int endHour = Integer.parseInt(match.group(4), 10);
-            int endMinute = Integer.parseInt(match.group(5), 10);
-
-            boolean odd, even;
-
-            /* if there is something after the time,
-             * check the value of "jämna|udda"
-             */
-            /*
-            even = match.group(6) == null || match.group(7).equals("jämna");
-            odd  = match.group(6) == null || match.group(7).equals("udda");
-            */
-            if (match.group(6) != null) {
-                if (match.group(7).equals("jämna")) {
-                    even = true;
-                    odd = false;
-                }
-                else {
-                    odd = true;
-                    even = false;
+        this.rules = null;
+        this.rulesCompiled = extraInformation == null;
+    }
+
+    /**
+     * Sets the text together with a rule that was already compiled from it,
+     * the text is not parsed again
+     * @param extraInformation  the text
+     * @param rules             the rule of the text, or null
+     */
+    void setExtraInformation(String extraInformation, ParkingTimeRules rules) {
+        this.status = null;
+        this.extraInformation = extraInformation;
+        this.rules = rules;
+        this.rulesCompiled = true;
+    }
+
+    /**
+     * Method for getting the rule, it is compiled from the text the first time. Any thread
+     * may ask, and texts are parsed once and the rule is shared by every parking with the same text.
+     * @return the rule of the parking, or null if it has none
+     */
+    ParkingTimeRules getRules() {
+        if (!rulesCompiled) {
+            synchronized (this) {
+                if (!rulesCompiled) {
+                    rules = ExtraInfoParser.getRules(extraInformation);
+                    rulesCompiled = true;
                 }
             }
-            else {
-                odd = true;
-                even = true;
-            }
+        }
+        return rules;
+    }
 
-            int startMonth, startDay, endMonth, endDay;
-            // if there is information after the odd/even week, check those values
-            if (match.group(8) != null) {
-                startDay = Integer.parseInt(match.group(9), 10);
-                startMonth = getMonth(match.group(10));
-                endDay = Integer.parseInt(match.group(11), 10);
-                endMonth = getMonth(match.group(12));
-            }
-            else {
-                startDay = 1;
-                startMonth = 1;
-                endDay = 31;
-                endMonth = 12;
-            }
+    /**
+     * @return true if the rule has been compiled from the text, asking doesn't compile it
+     */
+    boolean hasCompiledRules() {
+        return rulesCompiled;
+    }
 
-            ParkingTimeRules rule = new ParkingTimeRules(day, startHour, startMinute, endHour, endMinute, odd, even, startMonth, startDay, endMonth, endDay);
-            this.rules = rule;
-        }
+    /**
+     * @return the type of the parking, the tag it had in the API, or null if it isn't known
+     */
+    public String getParkingType() {
+        return parkingType;
     }
 
-    /** This method creates a regular expression and matches it with the extraInformation for a parking
-     *
+    /**
+     * Method for setting the type of the parking
+     * @param parkingType the tag of the parking in the API
      */
-    @NonNull
-    private Matcher getMatcher(String extraInformation) {
-        /*                                         1*/
-        Pattern regEx = Pattern.compile("^P-förbud (.*)dagar klockan " +
-              /* 2        3          4        5 */
-                "(\\d{2}).(\\d{2}) - (\\d{2}).(\\d{2})" +
-              /* 6 7 */
-                "( (jämna|udda) veckor)?" +
-              /* 8             9               10         11              12 */
-                "( under tiden (\\d{1,2}):[ae] ([a-z]*) - (\\d{1,2}):[ae] ([a-z]*))?");
-
-        return regEx.matcher(extraInformation);
-    }
-
-    private int getMonth(String group) {
-        return group.equals("januari")  ?  1 :
-               group.equals("februari") ?  2 :
-               group.equals("mars")     ?  3 :
-               group.equals("april")    ?  4 :
-               group.equals("maj")      ?  5 :
-               group.equals("juni")     ?  6 :
-               group.equals("juli")     ?  7 :
-               group.equals("augusti")  ?  8 :
-               group.equals("september")?  9 :
-               group.equals("oktober")  ? 10 :
-               group.equals("november") ? 11 :
-                                          12;
-    }
-
-    @NonNull
-    private int getDayOfWeek(String weekday) {
-        return weekday.equals("mån") ? DateTimeConstants.MONDAY :
-               weekday.equals("tis") ? DateTimeConstants.TUESDAY :
-               weekday.equals("ons") ? DateTimeConstants.WEDNESDAY :
-               weekday.equals("tors")? DateTimeConstants.THURSDAY :
-               weekday.equals("fre") ? DateTimeConstants.FRIDAY :
-               weekday.equals("lör") ? DateTimeConstants.SATURDAY :
-                                       DateTimeConstants.SUNDAY;
+    public void setParkingType(String parkingType) {
+        this.parkingType = parkingType;
     }
 
     /**
      * Method for getting how many free spots are available in a parking spot
-     * @return free spots
+     * @return free spots, or null if the API doesn't know
      */
     public Integer getFreeSpots() {
+        return freeSpots == NO_VALUE ? null : freeSpots;
+    }
+
+    /**
+     * Method for checking if the API tells how many free spots there are
+     * @return true if there is a value for free spots
+     */
+    public boolean hasFreeSpots() {
+        return freeSpots != NO_VALUE;
+    }
+
+    /**
+     * @return free spots, or NO_VALUE if the API doesn't know
+     */
+    int getRawFreeSpots() {
         return freeSpots;
     }
 
     /**
      * Method for setting the quantity of available spots in a parking object
-     * @param freeSpots
+     * @param freeSpots free spots, or null if they are not known
      */
     public void setFreeSpots(Integer freeSpots) {
+        this.status = null;
+        this.freeSpots = freeSpots == null ? NO_VALUE : freeSpots;
+    }
+
+    /**
+     * Method for setting the quantity of available spots in a parking object, without boxing
+     * @param freeSpots
+     */
+    public void setFreeSpots(int freeSpots) {
+        this.status = null;
         this.freeSpots = freeSpots;
     }
 
     /**
      * Method for getting the total amount of spots in a parking lot
-     * @return parking spots
+     * @return parking spots, or null if the API doesn't know
      */
     public Integer getParkingSpots() {
+        return parkingspots == NO_VALUE ? null : parkingspots;
+    }
+
+    /**
+     * @return parking spots, or NO_VALUE if the API doesn't know
+     */
+    int getRawParkingSpots() {
         return parkingspots;
     }
 
     /**
      * Method for setting the quantity of total spots in a parking object
-     * @param parkingspots
+     * @param parkingspots parking spots, or null if they are not known
      */
     public void setParkingSpots(Integer parkingspots) {
+        this.parkingspots = parkingspots == null ? NO_VALUE : parkingspots;
+    }
+
+    /**
+     * Method for setting the quantity of total spots in a parking object, without boxing
+     * @param parkingspots
+     */
+    public void setParkingSpots(int parkingspots) {
         this.parkingspots = parkingspots;
     }
 
@@ -352,11 +430,11 @@ public class Parking {
      */
     public static Comparator<Parking> DistanceComparator = new Comparator<Parking>() {
         public int compare(Parking p1, Parking p2) {
-            if (p1.freeSpots != null && p2.freeSpots == null) {
+            if (p1.freeSpots != NO_VALUE && p2.freeSpots == NO_VALUE) {
                 return -1;
             }
 
-            if (p2.freeSpots != null && p1.freeSpots == null) {
+            if (p2.freeSpots != NO_VALUE && p1.freeSpots == NO_VALUE) {
                 return 1;
             }
 
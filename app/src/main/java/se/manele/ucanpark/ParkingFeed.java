@@ -0,0 +1,105 @@
+package se.manele.ucanpark;
+
+import java.util.Locale;
+
+/**
+ * This class describes one of the parking feeds of Göteborgs Parkering API,
+ * the URL to fetch and the name of the tag that holds one parking in the response.
+ * A feed can have a limit, then only the closest parkings are kept while it is parsed.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingFeed {
+    // all parkings of the feed are kept
+    static final int NO_LIMIT = 0;
+
+    private final String url;
+    private final String parkingTypeName;
+    private final int limit;
+
+    /**
+     * The constructor of ParkingFeed
+     * @param url               the URL of the feed, with the query filled in
+     * @param parkingTypeName   the tag of one parking, ex. PublicTimeParking
+     */
+    public ParkingFeed(String url, String parkingTypeName) {
+        this(url, parkingTypeName, NO_LIMIT);
+    }
+
+    /**
+     * The constructor of ParkingFeed for a feed where only the closest parkings are kept
+     * @param url               the URL of the feed, with the query filled in
+     * @param parkingTypeName   the tag of one parking, ex. PublicTimeParking
+     * @param limit             how many parkings to keep, or NO_LIMIT
+     */
+    public ParkingFeed(String url, String parkingTypeName, int limit) {
+        this.url = url;
+        this.parkingTypeName = parkingTypeName;
+        this.limit = limit;
+    }
+
+    /**
+     * Method for getting how many parkings of the feed are kept
+     * @return the limit, or NO_LIMIT
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Method for getting the URL of the feed
+     * @return the url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Method for getting the tag name of one parking in the feed
+     * @return the parking type name
+     */
+    public String getParkingTypeName() {
+        return parkingTypeName;
+    }
+
+    @Override
+    public String toString() {
+        return parkingTypeName;
+    }
+
+    /**
+     * A feed where the location is still to be filled in. The template is read once, and
+     * a feed is made from it with the root locale so that the coordinates always get a
+     * decimal point.
+     */
+    public static class Template {
+        private final String url;
+        private final String parkingTypeName;
+
+        /**
+         * The constructor of Template
+         * @param url               the URL of the feed with %1$f latitude, %2$f longitude and %3$d radius
+         * @param parkingTypeName   the tag of one parking, ex. PublicTimeParking
+         */
+        public Template(String url, String parkingTypeName) {
+            this.url = url;
+            this.parkingTypeName = parkingTypeName;
+        }
+
+        /**
+         * Method for getting the feed around a location
+         * @param latitude  the latitude
+         * @param longitude the longitude
+         * @param radius    the radius in meters
+         * @return the feed
+         */
+        public ParkingFeed at(double latitude, double longitude, int radius) {
+            return new ParkingFeed(String.format(Locale.ROOT, url, latitude, longitude, radius), parkingTypeName);
+        }
+
+        public String getParkingTypeName() {
+            return parkingTypeName;
+        }
+    }
+}
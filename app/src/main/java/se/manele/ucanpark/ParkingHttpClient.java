@@ -0,0 +1,406 @@
+package se.manele.ucanpark;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class downloads the feeds of Göteborgs Parkering API. It asks for gzip,
+ * reuses connections and remembers the ETag and Last-Modified of every URL, so that
+ * a feed that hasn't changed is answered with 304 Not Modified and the parkings
+ * parsed last time are returned without downloading or parsing anything. The cached
+ * result is returned as it is, so the caller must not change it. NetworkUtils keeps
+ * it that way by handing out copies of the parkings, which may be changed freely.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingHttpClient {
+    // how many URLs we remember the last response of
+    private static final int MAX_CACHED_RESPONSES = 32;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    private final Map<String, CachedResponse> cache =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > MAX_CACHED_RESPONSES;
+                }
+            };
+    private final Map<String, FeedStats> stats = new HashMap<>();
+
+    /**
+     * This interface reads the body of a response
+     * @param <T> what the body is turned into
+     */
+    public interface ResponseParser<T> {
+        T parse(InputStream in) throws IOException, XmlPullParserException;
+    }
+
+    /**
+     * The constructor of ParkingHttpClient
+     * @param connectTimeoutMillis  how long to wait for a connection
+     * @param readTimeoutMillis     how long to wait for data once connected
+     */
+    public ParkingHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Fetches a URL and parses the body. If the server says that nothing has changed
+     * since last time, the result from last time is returned instead.
+     * @param url       the URL to fetch
+     * @param parser    reads the body, it is not called when the cached result is used.
+     *                  If it returns null the rest of the body is skipped and nothing is cached.
+     * @return what the parser returned, now or the last time the URL was fetched
+     */
+    public <T> T get(String url, ResponseParser<T> parser) throws IOException, XmlPullParserException {
+        return get(url, null, parser, null);
+    }
+
+    /**
+     * Fetches a URL like get, but the request can be cancelled from another thread.
+     * A cancelled request throws an IOException from wherever it was.
+     * @param url       the URL to fetch
+     * @param mode      what the parser makes of the body, ex. all parkings or only the closest.
+     *                  The result is remembered by URL and mode, so the same URL parsed in
+     *                  another mode is never answered with this result. Null for the default.
+     * @param parser    reads the body
+     * @param call      cancels the request, or null
+     * @return what the parser returned, now or the last time the URL was fetched in this mode
+     */
+    public <T> T get(String url, String mode, ResponseParser<T> parser, Call call) throws IOException, XmlPullParserException {
+        String key = mode == null ? url : url + " " + mode;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (call == null) {
+            return get(url, key, connection, parser);
+        }
+        call.attach(connection);
+        try {
+            return get(url, key, connection, parser);
+        }
+        finally {
+            call.detach();
+        }
+    }
+
+    private <T> T get(String url, String key, HttpURLConnection connection, ResponseParser<T> parser) throws IOException, XmlPullParserException {
+        long start = System.nanoTime();
+        CachedResponse cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (cached != null) {
+            if (cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        String feed = PerfRecorder.isEnabled() ? getFeed(url) : null;
+        long connect = PerfRecorder.begin("connect");
+        connection.connect();
+        PerfRecorder.end(PerfRecorder.Metric.CONNECT, feed, connect);
+        long firstByte = PerfRecorder.begin("first byte");
+        int code = connection.getResponseCode();
+        PerfRecorder.end(PerfRecorder.Metric.FIRST_BYTE, feed, firstByte);
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            // read the (empty) body so that the connection can be reused
+            close(connection.getInputStream());
+            long nanos = System.nanoTime() - start;
+            getStats(url).recordNotModified(cached.wireBytes, Math.max(0, cached.nanos - nanos));
+            @SuppressWarnings("unchecked")
+            T result = (T) cached.result;
+            return result;
+        }
+        if (code != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                close(error);
+            }
+            throw new IOException("HTTP " + code + " from " + url);
+        }
+
+        CountingInputStream wire = new CountingInputStream(connection.getInputStream());
+        CountingInputStream body = wire;
+        InputStream in = wire;
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            body = new CountingInputStream(new GZIPInputStream(wire));
+            in = body;
+        }
+        T result = null;
+        try {
+            result = parser.parse(in);
+            if (result != null) {
+                // the rest of the body has to be read before the connection can be reused
+                drain(in);
+            }
+        }
+        finally {
+            if (result == null) {
+                // the parser gave up or failed, the connection is dropped instead of reading the rest
+                connection.disconnect();
+            }
+            close(in);
+        }
+        if (result == null) {
+            return null;
+        }
+        long nanos = System.nanoTime() - start;
+        getStats(url).recordDownload(wire.count, body.count);
+        PerfRecorder.record(PerfRecorder.Metric.BYTES_READ, feed, wire.count);
+
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (etag != null || lastModified != null) {
+            synchronized (cache) {
+                cache.put(key, new CachedResponse(etag, lastModified, result, wire.count, nanos));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method for getting what has been downloaded and saved for every feed so far.
+     * A feed is the URL without the query, so all locations of a feed count together.
+     * @return a copy of the statistics, by feed
+     */
+    public Map<String, FeedStats> getStats() {
+        Map<String, FeedStats> copy = new HashMap<>();
+        synchronized (stats) {
+            for (Map.Entry<String, FeedStats> entry : stats.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * The feed of a URL, the URL without the query
+     */
+    private static String getFeed(String url) {
+        int query = url.indexOf('?');
+        return query < 0 ? url : url.substring(0, query);
+    }
+
+    private FeedStats getStats(String url) {
+        String feed = getFeed(url);
+        synchronized (stats) {
+            FeedStats feedStats = stats.get(feed);
+            if (feedStats == null) {
+                feedStats = new FeedStats();
+                stats.put(feed, feedStats);
+            }
+            return feedStats;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) >= 0) {
+            // skip the rest
+        }
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            // nothing more to do with this stream
+        }
+    }
+
+    /**
+     * A request that can be cancelled from another thread. Cancelling disconnects the
+     * connection, so a thread that is waiting for the server or reading the body stops
+     * at once instead of when the read timeout runs out.
+     */
+    public static class Call {
+        private HttpURLConnection connection;
+        private boolean cancelled;
+
+        /**
+         * Cancels the request, also if it hasn't started yet
+         */
+        public void cancel() {
+            HttpURLConnection running;
+            synchronized (this) {
+                cancelled = true;
+                running = connection;
+                connection = null;
+            }
+            if (running != null) {
+                running.disconnect();
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void attach(HttpURLConnection connection) throws IOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            this.connection = connection;
+        }
+
+        synchronized void detach() {
+            connection = null;
+        }
+    }
+
+    /**
+     * What we remember about the last 200 response of a URL
+     */
+    private static class CachedResponse {
+        final String etag;
+        final String lastModified;
+        final Object result;
+        final long wireBytes;
+        final long nanos;
+
+        CachedResponse(String etag, String lastModified, Object result, long wireBytes, long nanos) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.result = result;
+            this.wireBytes = wireBytes;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Statistics of one feed: requests, bytes and what gzip and 304 responses saved
+     */
+    public static class FeedStats {
+        private int requests;
+        private int notModified;
+        private long wireBytes;
+        private long bodyBytes;
+        private long bytesSaved;
+        private long nanosSaved;
+
+        synchronized void recordDownload(long wire, long body) {
+            requests++;
+            wireBytes += wire;
+            bodyBytes += body;
+            bytesSaved += body - wire;
+        }
+
+        synchronized void recordNotModified(long wire, long nanos) {
+            requests++;
+            notModified++;
+            bytesSaved += wire;
+            nanosSaved += nanos;
+        }
+
+        synchronized FeedStats copy() {
+            FeedStats copy = new FeedStats();
+            copy.requests = requests;
+            copy.notModified = notModified;
+            copy.wireBytes = wireBytes;
+            copy.bodyBytes = bodyBytes;
+            copy.bytesSaved = bytesSaved;
+            copy.nanosSaved = nanosSaved;
+            return copy;
+        }
+
+        public int getRequests() {
+            return requests;
+        }
+
+        public int getNotModified() {
+            return notModified;
+        }
+
+        /**
+         * @return bytes received from the network
+         */
+        public long getWireBytes() {
+            return wireBytes;
+        }
+
+        /**
+         * @return bytes of XML after gzip decoding
+         */
+        public long getBodyBytes() {
+            return bodyBytes;
+        }
+
+        /**
+         * @return bytes not downloaded thanks to gzip and 304 responses
+         */
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+
+        /**
+         * @return time saved by 304 responses compared to the full download before them
+         */
+        public long getMillisSaved() {
+            return nanosSaved / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests (" + notModified + " not modified), "
+                    + wireBytes + " bytes downloaded, " + bytesSaved + " bytes and "
+                    + getMillisSaved() + " ms saved";
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
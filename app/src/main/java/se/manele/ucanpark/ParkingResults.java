@@ -0,0 +1,653 @@
+package se.manele.ucanpark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class holds the sorted list of parkings that is shown in the app.
+ * Every batch of parkings, ex. one feed, is sorted and merged into the list on a
+ * background thread. Parkings are known by their id, so a parking that comes again, in
+ * a new refresh or from another feed, updates the row it already has instead of being
+ * added twice, and parkings that a feed no longer sends are removed when it has finished.
+ * The list is never changed after it has been published, instead a new list is published
+ * together with the changes between the old and the new list, so that the adapter only
+ * has to update the rows that changed.
+ * At start the list of the last run can be shown from a snapshot file, until the
+ * first parkings from the network replace it. When the user moves, the distances are
+ * computed again on the phone and the list is re-ranked with as few moves as possible.
+ * The list is published as a ParkingStore, which keeps the parkings column by column.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingResults {
+    private final ExecutorService worker;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+
+    // the last published list, only used on the worker thread
+    private List<Parking> published = Collections.emptyList();
+    // true while the published list comes from a snapshot
+    private boolean fromSnapshot;
+    // the feed and the round of every parking in the list by key, only used on the worker thread
+    private final Map<String, Source> sources = new HashMap<>();
+    private int round;
+    // the last location from relocate, only used on the worker thread
+    private boolean hasLocation;
+    private double latitude;
+    private double longitude;
+
+    /**
+     * This interface is called on the callback executor every time a new list is published
+     */
+    public interface Listener {
+        /**
+         * @param parkings  the new list, it will never change
+         * @param changes   the changes from the previous list, in the order they should be applied
+         * @param counts    how many parkings were inserted, updated and removed
+         */
+        void onResultsChanged(ParkingStore parkings, List<Change> changes, Counts counts);
+    }
+
+    /**
+     * How many parkings one new list inserted, updated and removed. A parking whose
+     * place in the list changes is one update, even if the changes move its row.
+     */
+    public static class Counts {
+        public final int inserted;
+        public final int updated;
+        public final int removed;
+
+        Counts(int inserted, int updated, int removed) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        /**
+         * Counts the rows of a list of changes
+         */
+        static Counts of(List<Change> changes) {
+            int inserted = 0;
+            int updated = 0;
+            int removed = 0;
+            for (Change change : changes) {
+                switch (change.type) {
+                    case INSERT:
+                        inserted += change.count;
+                        break;
+                    case REMOVE:
+                        removed += change.count;
+                        break;
+                    case CHANGE:
+                        updated += change.count;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return new Counts(inserted, updated, removed);
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + removed + " removed";
+        }
+    }
+
+    /**
+     * The feed that last sent a parking and the round it was sent in
+     */
+    private static class Source {
+        String feed;
+        int round;
+
+        Source(String feed, int round) {
+            this.feed = feed;
+            this.round = round;
+        }
+    }
+
+    /**
+     * One change between two published lists. Changes are applied one after another,
+     * the positions of a change are in the list as it is after the changes before it.
+     */
+    public static class Change {
+        public enum Type {
+            INSERT,
+            REMOVE,
+            MOVE,
+            CHANGE
+        }
+
+        public final Type type;
+        public final int position;
+        public final int count;
+        public final int toPosition;
+
+        private Change(Type type, int position, int count, int toPosition) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+            this.toPosition = toPosition;
+        }
+
+        static Change insert(int position, int count) {
+            return new Change(Type.INSERT, position, count, position);
+        }
+
+        static Change remove(int position, int count) {
+            return new Change(Type.REMOVE, position, count, position);
+        }
+
+        static Change move(int fromPosition, int toPosition) {
+            return new Change(Type.MOVE, fromPosition, 1, toPosition);
+        }
+
+        static Change change(int position, int count) {
+            return new Change(Type.CHANGE, position, count, position);
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + position + (type == Type.MOVE ? " -> " + toPosition : " +" + count);
+        }
+    }
+
+    /**
+     * The constructor of ParkingResults
+     * @param callbackExecutor  where the listener is called, in the app this is the main thread
+     * @param listener          told about every new list
+     */
+    public ParkingResults(Executor callbackExecutor, Listener listener) {
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParkingResults");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a new refresh. Parkings that a feed doesn't send again during the round
+     * are removed when finishFeed is called for the feed.
+     */
+    public void beginRound() {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                round++;
+            }
+        });
+    }
+
+    /**
+     * Adds a batch of parkings to the list, in the background. Parkings that are already
+     * in the list, from this feed or another, are updated where they are if they have changed.
+     * New parkings are sorted and merged into the list.
+     * @param feed  the name of the feed the parkings come from
+     * @param batch the parkings to add, the list is not changed
+     */
+    public void add(final String feed, List<Parking> batch) {
+        final List<Parking> parkings = new ArrayList<>(batch);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (hasLocation) {
+                    // the API measured from where the feed was asked for, not from where the user is now
+                    updateDistances(parkings, latitude, longitude);
+                }
+                List<Change> changes = new ArrayList<>();
+                List<Parking> list = published;
+                int removed = 0;
+                if (fromSnapshot) {
+                    // the first parkings from the network replace the snapshot
+                    changes.add(Change.remove(0, list.size()));
+                    removed = list.size();
+                    list = Collections.emptyList();
+                    sources.clear();
+                    fromSnapshot = false;
+                }
+                int[] counts = new int[2];
+                long merge = PerfRecorder.begin("merge");
+                List<Parking> upserted = upsert(list, feed, parkings, changes, counts);
+                PerfRecorder.end(PerfRecorder.Metric.MERGE, feed, merge);
+                if (!changes.isEmpty()) {
+                    publish(upserted, changes, new Counts(counts[0], counts[1], removed));
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the parkings of a feed that were not sent during this round, in the background.
+     * Nothing is removed if the feed didn't finish, since then its parkings are not known.
+     * @param feed      the name of the feed
+     * @param complete  true if the whole feed was read
+     */
+    public void finishFeed(final String feed, final boolean complete) {
+        if (!complete) {
+            return;
+        }
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (fromSnapshot) {
+                    return;
+                }
+                boolean[] vanished = null;
+                Map<String, Integer> positions = null;
+                Iterator<Map.Entry<String, Source>> iterator = sources.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Source> entry = iterator.next();
+                    Source source = entry.getValue();
+                    if (source.round == round || !source.feed.equals(feed)) {
+                        continue;
+                    }
+                    if (positions == null) {
+                        positions = positions(published);
+                        vanished = new boolean[published.size()];
+                    }
+                    vanished[positions.get(entry.getKey())] = true;
+                    iterator.remove();
+                }
+                if (vanished != null) {
+                    List<Change> changes = new ArrayList<>();
+                    publish(removeAll(published, vanished, changes), changes, Counts.of(changes));
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets new free spaces of parkings that are in the list, in the background. Only the
+     * free spaces change, so the rows stay where they are.
+     * @param freeSpaces the free spaces by parking id
+     */
+    public void updateFreeSpaces(final Map<String, Integer> freeSpaces) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Integer> positions = positions(published);
+                List<Parking> updated = new ArrayList<>(published);
+                boolean[] changed = new boolean[updated.size()];
+                int count = 0;
+                for (Map.Entry<String, Integer> entry : freeSpaces.entrySet()) {
+                    Integer position = positions.get(entry.getKey());
+                    int value = entry.getValue();
+                    if (position == null || value == Parking.NO_VALUE
+                            || !updated.get(position).hasFreeSpots() || updated.get(position).getRawFreeSpots() == value) {
+                        continue;
+                    }
+                    Parking copy = new Parking(updated.get(position));
+                    copy.setFreeSpots(value);
+                    updated.set(position, copy);
+                    changed[position] = true;
+                    count++;
+                }
+                if (count == 0) {
+                    return;
+                }
+                List<Change> changes = new ArrayList<>();
+                addChangedRanges(changed, changes);
+                publish(updated, changes, Counts.of(changes));
+            }
+        });
+    }
+
+    /**
+     * Computes the distances of all parkings from a new location and re-ranks the list,
+     * in the background. Parkings that are added later get their distances from this location too.
+     * @param latitude  where the user is
+     * @param longitude where the user is
+     */
+    public void relocate(final double latitude, final double longitude) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                ParkingResults.this.hasLocation = true;
+                ParkingResults.this.latitude = latitude;
+                ParkingResults.this.longitude = longitude;
+                List<Change> changes = new ArrayList<>();
+                List<Parking> reranked = rerank(published, latitude, longitude, changes);
+                if (!changes.isEmpty()) {
+                    publish(reranked, changes, Counts.of(changes));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the parkings of a snapshot file, in the background. Nothing happens if
+     * parkings have already been added. A snapshot that can't be read is deleted.
+     * @param file the snapshot file
+     */
+    public void restore(final File file) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!published.isEmpty()) {
+                    return;
+                }
+                List<Parking> parkings;
+                try {
+                    parkings = ParkingSnapshot.read(file);
+                }
+                catch (IOException e) {
+                    // missing, of an old version or broken, the network will fill the list
+                    file.delete();
+                    return;
+                }
+                if (!parkings.isEmpty()) {
+                    fromSnapshot = true;
+                    List<Change> changes = Collections.singletonList(Change.insert(0, parkings.size()));
+                    publish(parkings, changes, Counts.of(changes));
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves the list to a snapshot file, in the background after the batches
+     * that have already been added
+     * @param file the snapshot file
+     */
+    public void save(final File file) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (fromSnapshot) {
+                    // nothing new to save
+                    return;
+                }
+                try {
+                    ParkingSnapshot.write(file, published);
+                }
+                catch (IOException e) {
+                    // the old snapshot is kept
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private void publish(List<Parking> parkings, final List<Change> changes, final Counts counts) {
+        published = Collections.unmodifiableList(parkings);
+        final ParkingStore store = ParkingStore.of(parkings);
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onResultsChanged(store, changes, counts);
+            }
+        });
+    }
+
+    /**
+     * Method for getting the key a parking is known by, the id from the API or its place if it has none
+     */
+    static String key(Parking parking) {
+        if (parking.getId() != null) {
+            return parking.getId();
+        }
+        return parking.getName() + "@" + parking.getLatitude() + "," + parking.getLongitude();
+    }
+
+    /**
+     * The position of every parking in a list, by key
+     */
+    private static Map<String, Integer> positions(List<Parking> list) {
+        Map<String, Integer> positions = new HashMap<>(list.size() * 2);
+        for (int i = 0; i < list.size(); i++) {
+            positions.put(key(list.get(i)), i);
+        }
+        return positions;
+    }
+
+    /**
+     * Updates a sorted list with a batch of parkings. A parking that changed but still sorts
+     * the same is replaced in its row. A parking that sorts differently is removed and merged
+     * in again, like new parkings. Parkings that didn't change are left alone.
+     * @param counts    the number of inserted and updated parkings are written here
+     * @param changes   the changed, removed and inserted ranges are added here
+     * @return the new list
+     */
+    private List<Parking> upsert(List<Parking> list, String feed, List<Parking> batch, List<Change> changes, int[] counts) {
+        // the last copy of a parking in the batch wins
+        Map<String, Parking> incoming = new LinkedHashMap<>(batch.size() * 2);
+        for (Parking parking : batch) {
+            incoming.put(key(parking), parking);
+        }
+        Map<String, Integer> positions = null;
+        List<Parking> updated = null;
+        boolean[] moved = null;
+        List<Parking> inserted = new ArrayList<>();
+        for (Map.Entry<String, Parking> entry : incoming.entrySet()) {
+            Parking parking = entry.getValue();
+            Source source = sources.get(entry.getKey());
+            if (source == null) {
+                sources.put(entry.getKey(), new Source(feed, round));
+                inserted.add(parking);
+                counts[0]++;
+                continue;
+            }
+            source.feed = feed;
+            source.round = round;
+            if (positions == null) {
+                // only needed when parkings come again
+                positions = positions(list);
+                updated = new ArrayList<>(list);
+                moved = new boolean[list.size()];
+            }
+            int position = positions.get(entry.getKey());
+            Parking old = list.get(position);
+            if (old.hasSameValues(parking)) {
+                continue;
+            }
+            counts[1]++;
+            if (Parking.DistanceComparator.compare(old, parking) == 0) {
+                updated.set(position, parking);
+            }
+            else {
+                moved[position] = true;
+                inserted.add(parking);
+            }
+        }
+
+        List<Parking> result = list;
+        if (updated != null) {
+            boolean[] changed = new boolean[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                changed[i] = !moved[i] && updated.get(i) != list.get(i);
+            }
+            addChangedRanges(changed, changes);
+            result = removeAll(updated, moved, changes);
+        }
+        ParkingStore.sortByDistance(inserted); //Compares the distances and sorts list by ascending order
+        return inserted.isEmpty() ? result : merge(result, inserted, changes);
+    }
+
+    /**
+     * Adds one CHANGE for every range of changed rows
+     */
+    private static void addChangedRanges(boolean[] changed, List<Change> changes) {
+        int changedStart = -1;
+        for (int i = 0; i <= changed.length; i++) {
+            boolean c = i < changed.length && changed[i];
+            if (c && changedStart < 0) {
+                changedStart = i;
+            }
+            else if (!c && changedStart >= 0) {
+                changes.add(Change.change(changedStart, i - changedStart));
+                changedStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Removes the marked rows of a list in linear time
+     * @param changes the removed ranges are added here, from the end of the list
+     * @return the list without the rows
+     */
+    private static List<Parking> removeAll(List<Parking> list, boolean[] marked, List<Change> changes) {
+        int end = -1;
+        for (int i = list.size() - 1; i >= -1; i--) {
+            boolean remove = i >= 0 && marked[i];
+            if (remove && end < 0) {
+                end = i;
+            }
+            else if (!remove && end >= 0) {
+                // removing from the end first keeps the positions of the ranges before it
+                changes.add(Change.remove(i + 1, end - i));
+                end = -1;
+            }
+        }
+        List<Parking> kept = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            if (!marked[i]) {
+                kept.add(list.get(i));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Sets the distances of a batch. A parking of the batch may already be shown, ex. from
+     * the city index, so a parking whose distance changes is replaced by a copy, like in rerank.
+     */
+    private static void updateDistances(List<Parking> parkings, double latitude, double longitude) {
+        for (int i = 0; i < parkings.size(); i++) {
+            Parking parking = parkings.get(i);
+            if (!SpatialIndex.hasLocation(parking.getLatitude(), parking.getLongitude())) {
+                continue;
+            }
+            int distance = DistanceEngine.distance(latitude, longitude, parking.getLatitude(), parking.getLongitude());
+            if (distance != parking.getDistance()) {
+                Parking copy = new Parking(parking);
+                copy.setDistance(distance);
+                parkings.set(i, copy);
+            }
+        }
+    }
+
+    /**
+     * Computes new distances for a sorted list and sorts it again. Published parkings are never
+     * changed, a parking whose distance changes is replaced by a copy. The list is sorted by
+     * insertion sort, which only does a little work when the user has moved a little, and every
+     * parking that moves becomes one move. If that would take too long, ex. after a long
+     * jump, the list is sorted and replaced as a whole instead.
+     * @param changes the changed rows and the moves are added here
+     * @return the re-ranked list
+     */
+    static List<Parking> rerank(List<Parking> list, double latitude, double longitude, List<Change> changes) {
+        int n = list.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = list.get(i).getLatitude();
+            longitudes[i] = list.get(i).getLongitude();
+        }
+        int[] distances = new int[n];
+        DistanceEngine.distances(latitude, longitude, latitudes, longitudes, n, distances);
+
+        List<Parking> reranked = new ArrayList<>(list);
+        int changedStart = -1;
+        for (int i = 0; i <= n; i++) {
+            boolean changed = false;
+            if (i < n && SpatialIndex.hasLocation(latitudes[i], longitudes[i]) && distances[i] != list.get(i).getDistance()) {
+                Parking copy = new Parking(list.get(i));
+                copy.setDistance(distances[i]);
+                reranked.set(i, copy);
+                changed = true;
+            }
+            if (changed && changedStart < 0) {
+                changedStart = i;
+            }
+            else if (!changed && changedStart >= 0) {
+                changes.add(Change.change(changedStart, i - changedStart));
+                changedStart = -1;
+            }
+        }
+
+        // how many parkings the moves may shift in total before a full sort is cheaper
+        long budget = 4L * n + 64;
+        for (int i = 1; i < n; i++) {
+            Parking parking = reranked.get(i);
+            int j = i;
+            while (j > 0 && Parking.DistanceComparator.compare(reranked.get(j - 1), parking) > 0) {
+                j--;
+            }
+            if (j == i) {
+                continue;
+            }
+            budget -= i - j;
+            if (budget < 0) {
+                ParkingStore.sortByDistance(reranked);
+                changes.clear();
+                changes.add(Change.remove(0, n));
+                changes.add(Change.insert(0, n));
+                return reranked;
+            }
+            for (int k = i; k > j; k--) {
+                reranked.set(k, reranked.get(k - 1));
+            }
+            reranked.set(j, parking);
+            changes.add(Change.move(i, j));
+        }
+        return reranked;
+    }
+
+    /**
+     * Merges two sorted lists in linear time. Parkings of the batch come after parkings
+     * of the list with the same distance, like they would if the lists were joined and sorted.
+     * @param changes the inserted ranges are added here
+     * @return the merged list
+     */
+    static List<Parking> merge(List<Parking> list, List<Parking> batch, List<Change> changes) {
+        List<Parking> merged = new ArrayList<>(list.size() + batch.size());
+        int i = 0;
+        int j = 0;
+        int insertStart = -1;
+        while (i < list.size() || j < batch.size()) {
+            boolean fromBatch = i == list.size()
+                    || (j < batch.size() && Parking.DistanceComparator.compare(list.get(i), batch.get(j)) > 0);
+            if (fromBatch) {
+                if (insertStart < 0) {
+                    insertStart = merged.size();
+                }
+                merged.add(batch.get(j++));
+            }
+            else {
+                if (insertStart >= 0) {
+                    changes.add(Change.insert(insertStart, merged.size() - insertStart));
+                    insertStart = -1;
+                }
+                merged.add(list.get(i++));
+            }
+        }
+        if (insertStart >= 0) {
+            changes.add(Change.insert(insertStart, merged.size() - insertStart));
+        }
+        return merged;
+    }
+}
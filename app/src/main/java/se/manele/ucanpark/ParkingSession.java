@@ -0,0 +1,301 @@
+package se.manele.ucanpark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps everything that doesn't belong to one activity: the list that is
+ * shown, the location, the feeds that are being fetched and the threads that fetch them.
+ * When the screen is rotated the activity is created again but the session is kept,
+ * so the new activity only binds the list again instead of fetching and parsing it.
+ *
+ * The session never refers to an activity. The activity attaches itself as a Listener
+ * when it is created and detaches when it is destroyed, and while no activity is
+ * attached the results are only kept. All methods must be called on the main thread.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingSession {
+    // a feed that takes longer than this is left out of the list
+    private static final long FEED_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    // parkings are shown in batches of this size while a feed is downloading
+    private static final int FEED_BATCH_SIZE = 20;
+    private static final long FEED_FLUSH_INTERVAL_MILLIS = 200;
+    // the list of the last refresh, shown while the feeds are fetched
+    private static final String SNAPSHOT_FILE = "parkings.snapshot";
+    // parkings that never change are synced for the whole city once a day and found on the phone
+    private static final double CITY_LATITUDE = 57.7089;
+    private static final double CITY_LONGITUDE = 11.9746;
+    private static final int CITY_RADIUS = 20000;
+    private static final long CITY_SYNC_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long CITY_FEED_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    // with a radius larger than the start radius only this many of the closest parkings of a feed are kept
+    private static final int TOP_PARKINGS_PER_FEED = 250;
+
+    private final List<ParkingFeed.Template> feedTemplates;
+    private final File snapshotFile;
+    private final StartupTimeline timeline;
+    private final FeedFetcher feedFetcher;
+    private final FeedFetcher cityFetcher;
+    private final ParkingResults results;
+    private final CityIndex cityIndex;
+    private final FreeSpacesPoller freeSpacesPoller;
+    private final LocationPipeline locationPipeline;
+    private Listener listener;
+    // the list that is shown
+    private ParkingStore parkings = ParkingStore.of(new ArrayList<Parking>());
+    // parkings found on the phone during the current fetch
+    private int indexResults;
+    // when the feeds were fetched last
+    private long lastRefreshMillis;
+    // true when the location follows the user, after the first location has been refined
+    private boolean following;
+    // true when rows from the network or the city index have been published
+    private boolean freshRows;
+    // true when a batch has been added that isn't published yet
+    private boolean freshPending;
+
+    /**
+     * This interface is the activity that shows the session, it is called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called every time a new list is published, see ParkingResults.Listener
+         */
+        void onResultsChanged(ParkingStore parkings, List<ParkingResults.Change> changes, ParkingResults.Counts counts);
+
+        /**
+         * Called when the feeds are fetched for a new location
+         */
+        void onFetchStarted();
+
+        /**
+         * Called when a feed has finished or timed out
+         */
+        void onFeedFinished(ParkingFeed feed, int parkings, boolean timedOut);
+
+        /**
+         * Called when every feed of a fetch is done
+         * @param parkings the number of parkings from the network
+         */
+        void onAllFeedsFinished(int parkings);
+    }
+
+    /**
+     * The constructor of ParkingSession, it starts loading the snapshot and the city index
+     * @param mainExecutor      runs tasks on the main thread
+     * @param mainTimer         runs delayed tasks on the main thread
+     * @param feedTemplates     the feeds, with the location still to be filled in
+     * @param freeSpacesSource  fetches the free spaces of one parking
+     * @param directory         where the snapshot and the city index are kept
+     * @param timeline          the stages of the start of the app
+     */
+    public ParkingSession(Executor mainExecutor, TransitionScheduler.Timer mainTimer, List<ParkingFeed.Template> feedTemplates,
+                          FreeSpacesPoller.Source freeSpacesSource, File directory, StartupTimeline timeline) {
+        this.feedTemplates = new ArrayList<>(feedTemplates);
+        this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+        this.timeline = timeline;
+        this.feedFetcher = new FeedFetcher(mainExecutor, FEED_TIMEOUT_MILLIS, FEED_BATCH_SIZE, FEED_FLUSH_INTERVAL_MILLIS);
+        this.cityFetcher = new FeedFetcher(mainExecutor, CITY_FEED_TIMEOUT_MILLIS, FEED_BATCH_SIZE, FEED_FLUSH_INTERVAL_MILLIS);
+        this.results = new ParkingResults(mainExecutor, new ParkingResults.Listener() {
+            @Override
+            public void onResultsChanged(ParkingStore parkings, List<ParkingResults.Change> changes, ParkingResults.Counts counts) {
+                ParkingSession.this.parkings = parkings;
+                if (freshPending && parkings.size() > 0) {
+                    freshRows = true;
+                }
+                freshPending = false;
+                if (listener != null) {
+                    listener.onResultsChanged(parkings, changes, counts);
+                }
+            }
+        });
+        // the free spaces of the rows on the screen are fetched again while the app is shown
+        this.freeSpacesPoller = new FreeSpacesPoller(freeSpacesSource, mainTimer, mainExecutor, new FreeSpacesPoller.Listener() {
+            @Override
+            public void onFreeSpacesChanged(Map<String, Integer> freeSpaces) {
+                results.updateFreeSpaces(freeSpaces);
+            }
+        });
+        // decides when the list is re-ranked and when the feeds are fetched again
+        this.locationPipeline = new LocationPipeline(mainTimer, new LocationPipeline.Listener() {
+            @Override
+            public void onRelocate(double latitude, double longitude) {
+                // the distances are computed on the phone instead of fetching the feeds again
+                results.relocate(latitude, longitude);
+            }
+
+            @Override
+            public void onFetch(double latitude, double longitude, int radius) {
+                refresh(latitude, longitude, radius);
+            }
+        });
+        this.cityIndex = new CityIndex(directory);
+        results.restore(snapshotFile);
+        cityIndex.load();
+    }
+
+    /**
+     * Attaches the activity that shows the session. The list that is shown already
+     * is given by getParkings, the listener is only told about changes after that.
+     * @param listener the activity, or null to detach it
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the list that was published last
+     */
+    public ParkingStore getParkings() {
+        return parkings;
+    }
+
+    public StartupTimeline getTimeline() {
+        return timeline;
+    }
+
+    public FeedFetcher getFeedFetcher() {
+        return feedFetcher;
+    }
+
+    public FreeSpacesPoller getFreeSpacesPoller() {
+        return freeSpacesPoller;
+    }
+
+    /**
+     * Takes a new location, see LocationPipeline.onLocation
+     */
+    public void onLocation(double latitude, double longitude) {
+        locationPipeline.onLocation(latitude, longitude);
+    }
+
+    /**
+     * @return true if there has been a location
+     */
+    public boolean hasLocation() {
+        return locationPipeline.hasLocation();
+    }
+
+    public boolean isFollowing() {
+        return following;
+    }
+
+    public void setFollowing(boolean following) {
+        this.following = following;
+    }
+
+    /**
+     * @return true if rows from the network or the city index have been published
+     */
+    public boolean hasFreshRows() {
+        return freshRows;
+    }
+
+    /**
+     * Fetches the feeds again if it was longer ago than the interval
+     * @param intervalMillis how old the list may be
+     */
+    public void refreshIfOlderThan(long intervalMillis) {
+        if (System.currentTimeMillis() - lastRefreshMillis > intervalMillis) {
+            // rows that are still the same are kept, only changes are shown
+            locationPipeline.refetch();
+        }
+    }
+
+    /**
+     * Stops the timers while the app isn't shown, a fetch that is running goes on
+     */
+    public void stop() {
+        freeSpacesPoller.stop();
+        locationPipeline.stop();
+    }
+
+    /**
+     * Stops every thread, when the session is no longer needed
+     */
+    public void shutdown() {
+        listener = null;
+        feedFetcher.shutdown();
+        cityFetcher.shutdown();
+        results.shutdown();
+        cityIndex.shutdown();
+        freeSpacesPoller.shutdown();
+    }
+
+    /**
+     * Fetches the parkings around a location. Parkings that are already in the list
+     * are updated, and parkings that a feed no longer has are removed.
+     */
+    private void refresh(double lat, double lng, int radius) {
+        lastRefreshMillis = System.currentTimeMillis();
+        results.beginRound();
+        indexResults = 0;
+        if (listener != null) {
+            listener.onFetchStarted();
+        }
+        // feeds in the city index are answered on the phone, the others are fetched
+        List<ParkingFeed> feeds = new ArrayList<>();
+        for (ParkingFeed feed : getFeeds(lat, lng, radius)) {
+            SpatialIndex index = cityIndex.get(feed.getParkingTypeName());
+            if (index != null) {
+                List<Parking> found = index.withinRadius(lat, lng, radius);
+                indexResults += found.size();
+                freshPending |= !found.isEmpty();
+                results.add(feed.getParkingTypeName(), found);
+                results.finishFeed(feed.getParkingTypeName(), true);
+            }
+            else if (radius > LocationPipeline.START_RADIUS) {
+                // a large radius may send thousands of parkings, but only the closest are of use
+                feeds.add(new ParkingFeed(feed.getUrl(), feed.getParkingTypeName(), TOP_PARKINGS_PER_FEED));
+            }
+            else {
+                feeds.add(feed);
+            }
+        }
+        // all feeds are fetched at the same time, parkings are merged into the list while they download
+        feedFetcher.fetch(feeds, feedListener);
+    }
+
+    /**
+     * Fills in the location in the feed templates
+     */
+    private List<ParkingFeed> getFeeds(double latitude, double longitude, int radius) {
+        List<ParkingFeed> feeds = new ArrayList<>(feedTemplates.size());
+        for (ParkingFeed.Template template : feedTemplates) {
+            feeds.add(template.at(latitude, longitude, radius));
+        }
+        return feeds;
+    }
+
+    private final FeedFetcher.Listener feedListener = new FeedFetcher.Listener() {
+        @Override
+        public void onFeedBatch(ParkingFeed feed, List<Parking> parkings) {
+            results.add(feed.getParkingTypeName(), parkings);
+            freshPending |= !parkings.isEmpty();
+        }
+
+        @Override
+        public void onFeedFinished(ParkingFeed feed, List<Parking> parkings, boolean timedOut, boolean complete) {
+            results.finishFeed(feed.getParkingTypeName(), complete);
+            if (listener != null) {
+                listener.onFeedFinished(feed, parkings.size(), timedOut);
+            }
+        }
+
+        @Override
+        public void onAllFeedsFinished(List<Parking> parkings) {
+            locationPipeline.onFetchFinished(indexResults + parkings.size());
+            results.save(snapshotFile);
+            cityIndex.syncIfOlderThan(cityFetcher, getFeeds(CITY_LATITUDE, CITY_LONGITUDE, CITY_RADIUS), CITY_SYNC_INTERVAL_MILLIS);
+            if (listener != null) {
+                listener.onAllFeedsFinished(parkings.size());
+            }
+        }
+    };
+}
@@ -0,0 +1,268 @@
+package se.manele.ucanpark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class saves the list of parkings to a small binary file and reads it back, so that
+ * the last list can be shown as soon as the app starts, before the feeds have been fetched.
+ *
+ * The file starts with a header: magic number, version, number of parkings and a CRC32 of
+ * everything after the header. Then comes a table of the compiled rules, every rule is
+ * stored once with its clauses even if many parkings share it, and then the parkings one
+ * after another. Rules are not compiled to be saved, a parking whose rule hasn't been
+ * compiled yet only has its text, and it is compiled after reading when it is needed. A file with another version or a wrong checksum is not read. This class
+ * should not be instantiated.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class ParkingSnapshot {
+    private static final int MAGIC = 0x55435053; // "UCPS"
+    // must be changed every time the layout of the file changes
+    static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 * 4;
+    // a parking without strings: coordinates, spots, free spots, distance and rule index
+    private static final int PARKING_SIZE = 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int NO_RULE = -1;
+    // stored in the rule index of a parking whose rule hasn't been compiled from the text
+    private static final int NOT_COMPILED = -2;
+    private static final int NO_STRING = -1;
+    // id, name, extra information and parking type
+    private static final int STRINGS_PER_PARKING = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ParkingSnapshot() {
+
+    }
+
+    /**
+     * Writes the parkings to a file. The file is written next to the old one and then
+     * renamed, so a snapshot that is being written is never read.
+     * @param file      the snapshot file
+     * @param parkings  the parkings, in the order they are shown
+     */
+    public static void write(File file, List<Parking> parkings) throws IOException {
+        Map<ParkingTimeRules, Integer> ruleIndexes = new IdentityHashMap<>();
+        List<ParkingTimeRules> rules = new ArrayList<>();
+        List<byte[]> strings = new ArrayList<>(parkings.size() * STRINGS_PER_PARKING);
+        int[] parkingRules = new int[parkings.size()];
+        int size = HEADER_SIZE + 4;
+        for (int i = 0; i < parkings.size(); i++) {
+            Parking parking = parkings.get(i);
+            if (!parking.hasCompiledRules()) {
+                parkingRules[i] = NOT_COMPILED;
+            }
+            else {
+                ParkingTimeRules rule = parking.getRules();
+                if (rule == null) {
+                    parkingRules[i] = NO_RULE;
+                }
+                else {
+                    Integer index = ruleIndexes.get(rule);
+                    if (index == null) {
+                        index = rules.size();
+                        ruleIndexes.put(rule, index);
+                        rules.add(rule);
+                        size += rule.getSerializedSize();
+                    }
+                    parkingRules[i] = index;
+                }
+            }
+            size += PARKING_SIZE;
+            size += addString(strings, parking.getId());
+            size += addString(strings, parking.getName());
+            size += addString(strings, parking.getExtraInformation());
+            size += addString(strings, parking.getParkingType());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.position(HEADER_SIZE);
+        buffer.putInt(rules.size());
+        for (ParkingTimeRules rule : rules) {
+            rule.writeTo(buffer);
+        }
+        int string = 0;
+        for (int i = 0; i < parkings.size(); i++) {
+            Parking parking = parkings.get(i);
+            buffer.putDouble(parking.getLatitude());
+            buffer.putDouble(parking.getLongitude());
+            buffer.putInt(parking.getRawParkingSpots());
+            buffer.putInt(parking.getRawFreeSpots());
+            buffer.putInt(parking.getDistance());
+            buffer.putInt(parkingRules[i]);
+            for (int j = 0; j < STRINGS_PER_PARKING; j++) {
+                putString(buffer, strings.get(string++));
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, size - HEADER_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, parkings.size());
+        buffer.putInt(12, (int) crc.getValue());
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            // the data must be on disk before the rename makes it the snapshot
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads the parkings of a snapshot. The file is memory-mapped and the checksum is
+     * verified before anything is read.
+     * @param file the snapshot file
+     * @return the parkings, in the order they were written
+     * @throws IOException if the file is missing, of another version or broken
+     */
+    public static List<Parking> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot has a bad size: " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Snapshot is not of version " + VERSION);
+        }
+        int count = buffer.getInt(8);
+        int checksum = buffer.getInt(12);
+        byte[] scratch = new byte[8192];
+        if (checksum != checksum(buffer, scratch)) {
+            throw new IOException("Snapshot checksum does not match");
+        }
+
+        try {
+            buffer.position(HEADER_SIZE);
+            int ruleCount = buffer.getInt();
+            if (ruleCount < 0 || ruleCount > buffer.remaining() / ParkingTimeRules.MIN_SERIALIZED_SIZE
+                    || count < 0 || count > buffer.remaining() / PARKING_SIZE) {
+                throw new IOException("Snapshot has bad counts");
+            }
+            ParkingTimeRules[] rules = new ParkingTimeRules[ruleCount];
+            for (int i = 0; i < ruleCount; i++) {
+                rules[i] = ParkingTimeRules.readFrom(buffer);
+            }
+            List<Parking> parkings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Parking parking = new Parking();
+                parking.setLatitude(buffer.getDouble());
+                parking.setLongitude(buffer.getDouble());
+                parking.setParkingSpots(buffer.getInt());
+                parking.setFreeSpots(buffer.getInt());
+                parking.setDistance(buffer.getInt());
+                int rule = buffer.getInt();
+                if (rule < NOT_COMPILED || rule >= ruleCount) {
+                    throw new IOException("Snapshot has a bad rule index: " + rule);
+                }
+                scratch = ensureCapacity(scratch, buffer);
+                parking.setId(getString(buffer, scratch));
+                scratch = ensureCapacity(scratch, buffer);
+                parking.setName(getString(buffer, scratch));
+                scratch = ensureCapacity(scratch, buffer);
+                String text = getString(buffer, scratch);
+                if (rule == NOT_COMPILED) {
+                    parking.setExtraInformation(text);
+                }
+                else {
+                    parking.setExtraInformation(text, rule == NO_RULE ? null : rules[rule]);
+                }
+                scratch = ensureCapacity(scratch, buffer);
+                parking.setParkingType(getString(buffer, scratch));
+                parkings.add(parking);
+            }
+            return parkings;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot is truncated", e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Snapshot has a bad rule", e);
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, byte[] scratch) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        while (body.hasRemaining()) {
+            int length = Math.min(scratch.length, body.remaining());
+            body.get(scratch, 0, length);
+            crc.update(scratch, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Encodes a string and remembers it for writing
+     * @return how many bytes it will take in the file
+     */
+    private static int addString(List<byte[]> strings, String s) {
+        byte[] bytes = s == null ? null : s.getBytes(UTF_8);
+        strings.add(bytes);
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NO_STRING);
+        }
+        else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Makes sure the scratch array can hold the string that comes next in the buffer
+     */
+    private static byte[] ensureCapacity(byte[] scratch, ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt(buffer.position());
+        if (length < NO_STRING || length > buffer.remaining() - 4) {
+            throw new IOException("Snapshot has a bad string length: " + length);
+        }
+        return length > scratch.length ? new byte[length] : scratch;
+    }
+
+    private static String getString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getInt();
+        if (length == NO_STRING) {
+            return null;
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+}
@@ -0,0 +1,444 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds a list of parkings column by column, one array per field, instead
+ * of one object per parking. Numbers are kept as primitives, with Parking.NO_VALUE when
+ * the API didn't send a value, and the rules are kept once in a table that the parkings
+ * point into. Sorting only compares numbers in one array, and the status of a rule is
+ * computed once for all parkings that share it.
+ *
+ * The adapter reads a row through a Row, a small view that can be moved from row to row.
+ * A store is not changed after it has been published, and the statuses are only
+ * remembered on the main thread.
+ *
+ * Building a store doesn't compile any rule. The table is made from the texts, and a
+ * rule is compiled the first time it is needed, ex. when the status of a row is shown.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingStore {
+    // stored in the rule index of a parking without a rule
+    static final int NO_RULE = -1;
+    // the position takes the lowest bits of a sort key, so a store holds at most this many parkings
+    private static final int POSITION_BITS = 24;
+    static final int MAX_SIZE = 1 << POSITION_BITS;
+
+    private final int size;
+    private final String[] ids;
+    private final String[] names;
+    private final String[] extraInformation;
+    private final String[] parkingTypes;
+    private final int[] parkingSpots;
+    private final int[] freeSpots;
+    private final int[] distances;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] ruleIndexes;
+    // one parking with the text of every rule, the rule is compiled and kept by the parking
+    private final Parking[] ruleParkings;
+    // the status of every rule, it stays the same from ruleFrom until the rule changes at ruleUntil
+    private final boolean[] ruleForbidden;
+    private final long[] ruleFrom;
+    private final long[] ruleUntil;
+    private StatusListener statusListener;
+
+    /**
+     * This interface is told when the status of a rule is computed for the first time,
+     * it is called on the main thread
+     */
+    interface StatusListener {
+        /**
+         * @param rule the index of the rule
+         */
+        void onFirstStatus(int rule);
+    }
+
+    private ParkingStore(int size, Parking[] ruleParkings) {
+        this.size = size;
+        this.ids = new String[size];
+        this.names = new String[size];
+        this.extraInformation = new String[size];
+        this.parkingTypes = new String[size];
+        this.parkingSpots = new int[size];
+        this.freeSpots = new int[size];
+        this.distances = new int[size];
+        this.latitudes = new double[size];
+        this.longitudes = new double[size];
+        this.ruleIndexes = new int[size];
+        this.ruleParkings = ruleParkings;
+        this.ruleForbidden = new boolean[ruleParkings.length];
+        this.ruleFrom = new long[ruleParkings.length];
+        this.ruleUntil = new long[ruleParkings.length];
+        // nothing computed yet
+        Arrays.fill(ruleUntil, Long.MIN_VALUE);
+    }
+
+    /**
+     * Copies a list of parkings into a store, the order is kept
+     * @param parkings the parkings
+     * @return the store
+     */
+    public static ParkingStore of(List<Parking> parkings) {
+        int n = parkings.size();
+        if (n > MAX_SIZE) {
+            throw new IllegalArgumentException("Too many parkings: " + n);
+        }
+        // a text is compiled into one rule, so parkings with the same text share a rule
+        Map<String, Integer> ruleIndex = new HashMap<>();
+        List<Parking> ruleParkings = new ArrayList<>();
+        int[] indexes = new int[n];
+        for (int i = 0; i < n; i++) {
+            Parking parking = parkings.get(i);
+            String text = parking.getExtraInformation();
+            if (text == null) {
+                indexes[i] = NO_RULE;
+                continue;
+            }
+            Integer index = ruleIndex.get(text);
+            if (index == null) {
+                index = ruleParkings.size();
+                ruleIndex.put(text, index);
+                ruleParkings.add(parking);
+            }
+            else if (parking.hasCompiledRules() && !ruleParkings.get(index).hasCompiledRules()) {
+                // a parking that has the rule already saves compiling it again
+                ruleParkings.set(index, parking);
+            }
+            indexes[i] = index;
+        }
+
+        ParkingStore store = new ParkingStore(n, ruleParkings.toArray(new Parking[ruleParkings.size()]));
+        for (int i = 0; i < n; i++) {
+            Parking parking = parkings.get(i);
+            store.ids[i] = parking.getId();
+            store.names[i] = parking.getName();
+            store.extraInformation[i] = parking.getExtraInformation();
+            store.parkingTypes[i] = parking.getParkingType();
+            store.parkingSpots[i] = parking.getRawParkingSpots();
+            store.freeSpots[i] = parking.getRawFreeSpots();
+            store.distances[i] = parking.getDistance();
+            store.latitudes[i] = parking.getLatitude();
+            store.longitudes[i] = parking.getLongitude();
+            store.ruleIndexes[i] = indexes[i];
+        }
+        return store;
+    }
+
+    /**
+     * @return how many parkings there are
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for getting a view of a row
+     * @param position the row
+     * @return a view that can be moved to other rows of this store
+     */
+    public Row row(int position) {
+        return new Row().moveTo(position);
+    }
+
+    /**
+     * Returns the status of a row at a tick. The status of the rule is remembered until
+     * its next transition and shared by every row with the same rule.
+     * @param position  the row
+     * @param clock     the time of the tick
+     * @return the status
+     */
+    public Parking.ParkingStatus getParkingStatus(int position, RuleClock clock) {
+        int rule = ruleIndexes[position];
+        if (rule != NO_RULE && isForbidden(rule, clock)) {
+            return Parking.ParkingStatus.PARKING_FORBIDDEN;
+        }
+        int free = freeSpots[position];
+        if (free == Parking.NO_VALUE) {
+            return Parking.ParkingStatus.PARKING_ALLOWED;
+        }
+        if (free == 0) {
+            return Parking.ParkingStatus.PARKING_FULL;
+        }
+        return Parking.ParkingStatus.SPOTS_AVAILABLE;
+    }
+
+    private boolean isForbidden(int rule, RuleClock clock) {
+        long millis = clock.getMillis();
+        if (millis < ruleFrom[rule] || millis >= ruleUntil[rule]) {
+            boolean first = ruleUntil[rule] == Long.MIN_VALUE;
+            long evaluation = PerfRecorder.begin("rule evaluation");
+            ParkingTimeRules rules = getRule(rule);
+            ruleForbidden[rule] = rules != null && rules.isParkingForbidden(clock);
+            ruleFrom[rule] = millis;
+            ruleUntil[rule] = rules == null ? ParkingTimeRules.NO_TRANSITION : rules.nextTransitionMillis(clock);
+            PerfRecorder.end(PerfRecorder.Metric.RULE_EVAL, null, evaluation);
+            if (first && statusListener != null) {
+                statusListener.onFirstStatus(rule);
+            }
+        }
+        return ruleForbidden[rule];
+    }
+
+    /**
+     * Sets who is told when the status of a rule is computed for the first time
+     * @param statusListener the listener, or null
+     */
+    void setStatusListener(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    /**
+     * @return how many different rules the parkings have
+     */
+    int getRuleCount() {
+        return ruleParkings.length;
+    }
+
+    /**
+     * Method for getting a rule, it is compiled the first time. Any thread may ask.
+     * @param rule the index of the rule
+     * @return the rule, or null if the text has no rule
+     */
+    ParkingTimeRules getRule(int rule) {
+        return ruleParkings[rule].getRules();
+    }
+
+    /**
+     * @param rule the index of the rule
+     * @return true if the rule has been compiled, asking doesn't compile it
+     */
+    boolean isRuleCompiled(int rule) {
+        return ruleParkings[rule].hasCompiledRules();
+    }
+
+    /**
+     * @param position the row
+     * @return the index of the rule of the row, or NO_RULE
+     */
+    int getRuleIndex(int position) {
+        return ruleIndexes[position];
+    }
+
+    /**
+     * Method for getting when a rule of the table changes next
+     * @param rule  the index of the rule
+     * @param clock the time of the tick to look from
+     * @return the time of the next transition, or ParkingTimeRules.NO_TRANSITION
+     */
+    long getNextTransition(int rule, RuleClock clock) {
+        ParkingTimeRules rules = getRule(rule);
+        return rules == null ? ParkingTimeRules.NO_TRANSITION : rules.nextTransitionMillis(clock);
+    }
+
+    /**
+     * Method for finding the rows that have some of the rules
+     * @param marked the rules to look for, by index in the table
+     * @return the rows, in order
+     */
+    int[] getPositionsWithRules(boolean[] marked) {
+        int count = 0;
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            int rule = ruleIndexes[i];
+            if (rule != NO_RULE && marked[rule]) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Sorts the rows in the order of Parking.DistanceComparator, before the store is published
+     */
+    void sortByDistance() {
+        long sort = PerfRecorder.begin("sort");
+        int[] order = sortOrder(size, freeSpots, distances);
+        permute(ids, order);
+        permute(names, order);
+        permute(extraInformation, order);
+        permute(parkingTypes, order);
+        permute(parkingSpots, order);
+        permute(freeSpots, order);
+        permute(distances, order);
+        permute(latitudes, order);
+        permute(longitudes, order);
+        permute(ruleIndexes, order);
+        PerfRecorder.end(PerfRecorder.Metric.SORT, null, sort);
+    }
+
+    /**
+     * Sorts a list of parkings in the order of Parking.DistanceComparator. The fields that
+     * are compared are copied into one array of numbers first, so that sorting doesn't
+     * have to visit the parking objects.
+     * @param parkings the list to sort
+     */
+    public static void sortByDistance(List<Parking> parkings) {
+        int n = parkings.size();
+        if (n < 2) {
+            return;
+        }
+        if (n > MAX_SIZE) {
+            throw new IllegalArgumentException("Too many parkings: " + n);
+        }
+        long sort = PerfRecorder.begin("sort");
+        int[] free = new int[n];
+        int[] distance = new int[n];
+        Parking[] copy = new Parking[n];
+        for (int i = 0; i < n; i++) {
+            Parking parking = parkings.get(i);
+            copy[i] = parking;
+            free[i] = parking.getRawFreeSpots();
+            distance[i] = parking.getDistance();
+        }
+        int[] order = sortOrder(n, free, distance);
+        for (int i = 0; i < n; i++) {
+            parkings.set(i, copy[order[i]]);
+        }
+        PerfRecorder.end(PerfRecorder.Metric.SORT, null, sort);
+    }
+
+    /**
+     * Computes the sorted order of rows. Every row becomes one number, parkings without
+     * free spots in the highest bit, then the distance and last the position, so that
+     * sorting the numbers gives the same order as a stable sort with the comparator.
+     * @return the old position of every row in the new order
+     */
+    private static int[] sortOrder(int n, int[] freeSpots, int[] distances) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = sortKey(freeSpots[i], distances[i], i);
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & (MAX_SIZE - 1));
+        }
+        return order;
+    }
+
+    /**
+     * Makes the number a parking is sorted by. Smaller numbers come first, in the same
+     * order as Parking.DistanceComparator, and the position breaks ties.
+     * @param freeSpots the free spots, or Parking.NO_VALUE
+     * @param distance  the distance
+     * @param position  the position, from 0 to MAX_SIZE - 1
+     * @return the key
+     */
+    static long sortKey(int freeSpots, int distance, int position) {
+        long noFreeSpots = freeSpots == Parking.NO_VALUE ? 1 : 0;
+        // flipping the sign bit makes the distance sort right as an unsigned number
+        long unsignedDistance = (distance ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+        return noFreeSpots << (32 + POSITION_BITS) | unsignedDistance << POSITION_BITS | position;
+    }
+
+    private static void permute(int[] column, int[] order) {
+        int[] old = column.clone();
+        for (int i = 0; i < order.length; i++) {
+            column[i] = old[order[i]];
+        }
+    }
+
+    private static void permute(double[] column, int[] order) {
+        double[] old = column.clone();
+        for (int i = 0; i < order.length; i++) {
+            column[i] = old[order[i]];
+        }
+    }
+
+    private static void permute(String[] column, int[] order) {
+        String[] old = column.clone();
+        for (int i = 0; i < order.length; i++) {
+            column[i] = old[order[i]];
+        }
+    }
+
+    /**
+     * A view of one row of the store, with the same getters as Parking. Moving the view
+     * to another row doesn't create any objects.
+     */
+    public class Row {
+        private int position;
+
+        private Row() {
+
+        }
+
+        /**
+         * Moves the view to another row
+         * @param position the row
+         * @return this view
+         */
+        public Row moveTo(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+            }
+            this.position = position;
+            return this;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public String getId() {
+            return ids[position];
+        }
+
+        public String getName() {
+            return names[position];
+        }
+
+        public String getExtraInformation() {
+            return extraInformation[position];
+        }
+
+        public String getParkingType() {
+            return parkingTypes[position];
+        }
+
+        /**
+         * @return free spots, or null if the API doesn't know
+         */
+        public Integer getFreeSpots() {
+            return freeSpots[position] == Parking.NO_VALUE ? null : freeSpots[position];
+        }
+
+        public boolean hasFreeSpots() {
+            return freeSpots[position] != Parking.NO_VALUE;
+        }
+
+        /**
+         * @return parking spots, or null if the API doesn't know
+         */
+        public Integer getParkingSpots() {
+            return parkingSpots[position] == Parking.NO_VALUE ? null : parkingSpots[position];
+        }
+
+        public int getDistance() {
+            return distances[position];
+        }
+
+        public double getLatitude() {
+            return latitudes[position];
+        }
+
+        public double getLongitude() {
+            return longitudes[position];
+        }
+
+        /**
+         * @param clock the time of the tick
+         * @return the status of the row
+         */
+        public Parking.ParkingStatus getParkingStatus(RuleClock clock) {
+            return ParkingStore.this.getParkingStatus(position, clock);
+        }
+    }
+}
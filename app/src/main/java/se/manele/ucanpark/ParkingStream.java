@@ -0,0 +1,168 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class receives parkings one by one while a feed is being parsed and hands
+ * them on in small batches, so that the first parkings can be shown before the
+ * whole feed has been downloaded. A stream can be cancelled at any time, the
+ * connection is then closed and parsing stops at the next parking.
+ *
+ * A batch that isn't full is handed on by a timer when its first parking has waited
+ * the flush interval, so parkings are shown also while a slow download stalls.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingStream {
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long flushIntervalNanos;
+    private final ScheduledExecutorService timer;
+    private final Listener listener;
+    private final ParkingHttpClient.Call call = new ParkingHttpClient.Call();
+
+    private List<Parking> batch;
+    private long lastFlush;
+    // hands on the batch when its first parking has waited the interval, or null
+    private ScheduledFuture<?> flushTask;
+    private int count;
+    private volatile boolean cancelled;
+
+    /**
+     * This interface is called on the thread that parses the feed, or on the timer
+     * thread for a batch that has waited, but never on both at the same time
+     */
+    public interface Listener {
+        /**
+         * Called with every batch of parkings, in the order they came in the feed
+         * @param parkings the batch, the listener may keep it
+         */
+        void onParkings(List<Parking> parkings);
+
+        /**
+         * Called once when the stream is done
+         * @param complete true if the whole feed was read, false if it was cancelled or failed
+         */
+        void onFinished(boolean complete);
+    }
+
+    /**
+     * The constructor of ParkingStream
+     * @param batchSize             a batch is handed on when it has this many parkings
+     * @param flushIntervalMillis   or when the oldest parking in it has waited this long
+     * @param timer                 hands on a batch that has waited, or null to only check when a parking arrives
+     * @param listener              gets the batches
+     */
+    public ParkingStream(int batchSize, long flushIntervalMillis, ScheduledExecutorService timer, Listener listener) {
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushIntervalNanos = flushIntervalMillis * 1000000;
+        this.timer = timer;
+        this.listener = listener;
+        this.batch = new ArrayList<>(batchSize);
+        this.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Stops the stream, no more batches are handed on after this
+     */
+    public void cancel() {
+        cancelled = true;
+        call.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the request of the feed, cancelled with the stream
+     */
+    ParkingHttpClient.Call getCall() {
+        return call;
+    }
+
+    /**
+     * Method for getting how many parkings have been received
+     * @return the number of parkings
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Adds a parsed parking, the batch is handed on if it is full or has waited long enough.
+     * @param parking the parking
+     * @return false if the stream has been cancelled and parsing should stop
+     */
+    synchronized boolean add(Parking parking) {
+        if (cancelled) {
+            return false;
+        }
+        if (batch.isEmpty()) {
+            lastFlush = System.nanoTime();
+            scheduleFlush();
+        }
+        batch.add(parking);
+        count++;
+        if (batch.size() >= batchSize || System.nanoTime() - lastFlush >= flushIntervalNanos) {
+            flush();
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Hands on what is left and tells the listener that the stream is done
+     * @param complete true if the whole feed was read
+     */
+    synchronized void finish(boolean complete) {
+        if (!cancelled) {
+            flush();
+        }
+        listener.onFinished(complete && !cancelled);
+    }
+
+    private void scheduleFlush() {
+        if (timer == null) {
+            return;
+        }
+        try {
+            flushTask = timer.schedule(flushLate, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            // the timer has been shut down, the interval is checked when a parking arrives
+            flushTask = null;
+        }
+    }
+
+    private final Runnable flushLate = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ParkingStream.this) {
+                if (!cancelled) {
+                    flush();
+                }
+            }
+        }
+    };
+
+    private void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Parking> full = batch;
+        batch = new ArrayList<>(batchSize);
+        lastFlush = System.nanoTime();
+        listener.onParkings(full);
+    }
+}
@@ -1,41 +1,73 @@
 package se.manele.ucanpark;
 
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeFieldType;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Instant;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @version: 2019-04-01
  * @author: Elena Marzi
  *
  * This class is responsible for handling which rules controls when a parking is forbidden
+ *
+ * A rule is a set of one or more clauses, like the lines of a sign. Every clause is compiled
+ * once when it is created: the forbidden weekdays and time period become one bit for every
+ * minute of the week, and the forbidden date period one bit for every (month, day).
+ *
+ * The clauses are then compiled together into a group table. Which clauses are active on a
+ * day only depends on the week parity and the date, so every (parity, date) points to a
+ * group, the minutes of the week of the clauses that are active that day joined into one
+ * mask. Asking if parking is forbidden is a lookup of the group and one bit test, however
+ * many clauses there are.
  */
 
 
 public class ParkingTimeRules {
-    //forbidden weekdays
-    private Set<Integer> weekdays = new HashSet<>();
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    // one slot for every month and day, (month - 1) * 31 + (day - 1)
+    static final int DATE_SLOTS = 12 * 31;
+    // the clauses that are active on a day are kept as the bits of a long
+    static final int MAX_CLAUSES = 64;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    // nextTransition gives up after this many days, a rule that hasn't changed by then never changes
+    private static final int MAX_TRANSITION_DAYS = 400;
+    // returned by nextTransitionMillis when the rule never changes
+    static final long NO_TRANSITION = Long.MAX_VALUE;
+    // bytes written by writeTo for one clause: time period, week flags and both masks
+    private static final int CLAUSE_SIZE = 4 + 4 + 1 + 8 * (words(MINUTES_PER_WEEK) + words(DATE_SLOTS));
+    // bytes written by writeTo for a rule with one clause, no rule is smaller
+    static final int MIN_SERIALIZED_SIZE = 4 + CLAUSE_SIZE;
+    // the group of days when no clause is active
+    private static final long[] NO_MINUTES = new long[words(MINUTES_PER_WEEK)];
+
+    private final Clause[] clauses;
 
-    // forbidden timeperiod during a day (ex. 07.30 to 11.00 startHour = 7, startMinutes = 30 ..)
-    private int startHour;
-    private int startMinute;
-    private int endHour;
-    private int endMinute;
+    // the group of every day, at dayIndex(oddWeek, dateSlot)
+    private final short[] dayGroups = new short[2 * DATE_SLOTS];
+    // the forbidden minutes of the week of every group, group 0 is never forbidden
+    private final long[][] groupMasks;
+    // the minutes that are forbidden in some group, most minutes of most rules are not
+    private final long[] anyMinuteMask = new long[words(MINUTES_PER_WEEK)];
 
-    // forbidden odd or even week
-    private boolean forbiddenOddWeeks;
-    private boolean forbiddenEvenWeeks;
+    // the day the last timestamp fell on, shared by all rules
+    private static volatile DayFields lastDay = DayFields.of(0);
 
-    // forbidden month and day (ex. 3 March to 15 April startMonth = 3, startDay = 15, ...)
-    private int startMonth;
-    private int startDay;
-    private int endMonth;
-    private int endDay;
+    // the last transition that was computed, many parkings share the rule and ask for the same one
+    private volatile Transition lastTransition;
 
     /**
-     *  constructor
+     *  constructor of a rule with one clause
      * @param dayOfWeek
      * @param startHour
      * @param startMinute
@@ -49,25 +81,155 @@ public class ParkingTimeRules {
      * @param endDay
      */
     public ParkingTimeRules(int dayOfWeek, int startHour, int startMinute, int endHour, int endMinute, boolean forbiddenOddWeeks, boolean forbiddenEvenWeeks, int startMonth, int startDay, int endMonth, int endDay) {
-        weekdays.add(dayOfWeek);
-        this.startHour = startHour;
-        this.startMinute = startMinute;
-        this.endHour = endHour;
-        this.endMinute = endMinute;
-        this.forbiddenOddWeeks = forbiddenOddWeeks;
-        this.forbiddenEvenWeeks = forbiddenEvenWeeks;
-        this.startMonth = startMonth;
-        this.startDay = startDay;
-        this.endMonth = endMonth;
-        this.endDay = endDay;
+        this(new Clause[] { new Clause(1 << (dayOfWeek - DateTimeConstants.MONDAY), startHour, startMinute,
+                endHour, endMinute, forbiddenOddWeeks, forbiddenEvenWeeks, startMonth, startDay, endMonth, endDay) });
+    }
+
+    private ParkingTimeRules(Clause[] clauses) {
+        if (clauses.length == 0 || clauses.length > MAX_CLAUSES) {
+            throw new IllegalArgumentException("A rule has 1 to " + MAX_CLAUSES + " clauses: " + clauses.length);
+        }
+        this.clauses = clauses;
+        this.groupMasks = compileGroups();
+    }
+
+    /**
+     * Creates a rule with one clause that is forbidden on several weekdays, ex. "mån-fre"
+     * @param daysOfWeek    bit (dayOfWeek - 1) is set for every forbidden weekday
+     * @return the rule, the other parameters are the same as for the constructor
+     */
+    static ParkingTimeRules onDays(int daysOfWeek, int startHour, int startMinute, int endHour, int endMinute, boolean forbiddenOddWeeks, boolean forbiddenEvenWeeks, int startMonth, int startDay, int endMonth, int endDay) {
+        return new ParkingTimeRules(new Clause[] { new Clause(daysOfWeek, startHour, startMinute, endHour, endMinute,
+                forbiddenOddWeeks, forbiddenEvenWeeks, startMonth, startDay, endMonth, endDay) });
+    }
+
+    /**
+     * Joins rules into one. Parking is forbidden when any of the clauses forbids it.
+     * @param rules the rules, together at most MAX_CLAUSES clauses
+     * @return the joined rule, or the rule itself if there is only one
+     */
+    public static ParkingTimeRules union(List<ParkingTimeRules> rules) {
+        if (rules.size() == 1) {
+            return rules.get(0);
+        }
+        List<Clause> clauses = new ArrayList<>();
+        for (ParkingTimeRules rule : rules) {
+            clauses.addAll(Arrays.asList(rule.clauses));
+        }
+        return new ParkingTimeRules(clauses.toArray(new Clause[clauses.size()]));
+    }
+
+    /**
+     * @return how many clauses the rule has
+     */
+    public int getClauseCount() {
+        return clauses.length;
+    }
+
+    /**
+     * Writes the rule, getSerializedSize() bytes. Only the clauses are written, the group
+     * table is joined again from their compiled masks when the rule is read.
+     * @param out where the rule is written
+     */
+    void writeTo(ByteBuffer out) {
+        out.putInt(clauses.length);
+        for (Clause clause : clauses) {
+            clause.writeTo(out);
+        }
+    }
+
+    /**
+     * @return how many bytes writeTo writes
+     */
+    int getSerializedSize() {
+        return 4 + clauses.length * CLAUSE_SIZE;
+    }
+
+    /**
+     * Reads a rule that was written by writeTo
+     * @param in where the rule is read from
+     * @return the rule
+     * @throws IllegalArgumentException if the number of clauses is wrong
+     */
+    static ParkingTimeRules readFrom(ByteBuffer in) {
+        int count = in.getInt();
+        if (count <= 0 || count > MAX_CLAUSES) {
+            throw new IllegalArgumentException("Bad number of clauses: " + count);
+        }
+        Clause[] clauses = new Clause[count];
+        for (int i = 0; i < count; i++) {
+            clauses[i] = new Clause(in);
+        }
+        return new ParkingTimeRules(clauses);
     }
 
     /**
-     * add another day of the week which is forbiddden
+     * add another day of the week which is forbiddden. Rules are shared between parkings
+     * and never change, so this returns a new rule.
      * @param dayOfWeek
+     * @return a copy of this rule where every clause is also forbidden on dayOfWeek
      */
-    public void addWeekDay(int dayOfWeek) {
-        weekdays.add(dayOfWeek);
+    public ParkingTimeRules withWeekDay(int dayOfWeek) {
+        Clause[] copies = new Clause[clauses.length];
+        for (int i = 0; i < clauses.length; i++) {
+            copies[i] = new Clause(clauses[i]);
+            copies[i].compileWeekDay(dayOfWeek);
+        }
+        return new ParkingTimeRules(copies);
+    }
+
+    /**
+     * Finds the clauses that are active on every (parity, date), and joins the minutes of
+     * the clauses of each different set into the mask of a group
+     */
+    private long[][] compileGroups() {
+        Map<Long, Integer> groups = new HashMap<>();
+        List<long[]> masks = new ArrayList<>();
+        masks.add(NO_MINUTES);
+        for (int parity = 0; parity < 2; parity++) {
+            boolean oddWeek = parity == 1;
+            for (int slot = 0; slot < DATE_SLOTS; slot++) {
+                long active = 0;
+                for (int c = 0; c < clauses.length; c++) {
+                    if (clauses[c].isDayActive(oddWeek, slot)) {
+                        active |= 1L << c;
+                    }
+                }
+                Integer group = groups.get(active);
+                if (group == null) {
+                    long[] mask = new long[words(MINUTES_PER_WEEK)];
+                    boolean empty = true;
+                    for (int c = 0; c < clauses.length; c++) {
+                        if ((active & (1L << c)) != 0) {
+                            empty &= !or(mask, clauses[c].minuteMask);
+                        }
+                    }
+                    if (empty) {
+                        group = 0;
+                    }
+                    else {
+                        group = masks.size();
+                        masks.add(mask);
+                        or(anyMinuteMask, mask);
+                    }
+                    groups.put(active, group);
+                }
+                dayGroups[dayIndex(oddWeek, slot)] = (short) (int) group;
+            }
+        }
+        return masks.toArray(new long[masks.size()][]);
+    }
+
+    /**
+     * @return true if some bit was set in from
+     */
+    private static boolean or(long[] into, long[] from) {
+        long any = 0;
+        for (int i = 0; i < into.length; i++) {
+            into[i] |= from[i];
+            any |= from[i];
+        }
+        return any != 0;
     }
 
     /**
@@ -77,48 +239,318 @@ public class ParkingTimeRules {
      */
 
     public boolean isParkingForbidden(Instant timestamp) {
-        int dayOfWeek = timestamp.get(DateTimeFieldType.dayOfWeek());
-        int now = timestamp.get(DateTimeFieldType.clockhourOfDay()) * 60 +
-                  timestamp.get(DateTimeFieldType.minuteOfHour());
-        if (!weekdays.contains(dayOfWeek))
+        long epochMinute = Math.floorDiv(timestamp.getMillis(), MILLIS_PER_MINUTE);
+        long epochDay = Math.floorDiv(epochMinute, MINUTES_PER_DAY);
+        int minuteOfDay = (int) (epochMinute - epochDay * MINUTES_PER_DAY);
+        // 1970-01-01 was a thursday, three days after monday
+        int minuteOfWeek = (int) Math.floorMod(epochDay + 3, 7L) * MINUTES_PER_DAY + minuteOfDay;
+        if (!isSet(anyMinuteMask, minuteOfWeek))
             return false;
 
-        int timePeriodStart = startHour * 60 + startMinute;
-        int timePeriodEnd = endHour * 60 + endMinute;
-        if (timePeriodStart < timePeriodEnd) {
-            if (now < timePeriodStart || now >= timePeriodEnd) {
-                return false;
+        DayFields day = lastDay;
+        if (day.epochDay != epochDay) {
+            day = DayFields.of(epochDay);
+            lastDay = day;
+        }
+        return isSet(groupMasks[dayGroups[dayIndex(day.oddWeek, day.dateSlot)]], minuteOfWeek);
+    }
+
+    /**
+     * Checks the rule against the time of a tick. The fields of the time have already been
+     * taken out by the clock, in the local time zone, so this is a lookup and a bit test,
+     * the same for one clause as for many.
+     * @param clock the time of the tick
+     * @return true if parking is forbidden at this time otherwise false
+     */
+    public boolean isParkingForbidden(RuleClock clock) {
+        return isSet(groupMasks[dayGroups[dayIndex(clock.oddWeek, clock.dateSlot)]], clock.minuteOfWeek);
+    }
+
+    /**
+     * Computes when the rule next changes between forbidden and allowed, in UTC like
+     * isParkingForbidden(Instant)
+     * @param timestamp the time to look from
+     * @return the first minute after timestamp with another answer, or null if the answer
+     *         doesn't change within a year
+     */
+    public Instant nextTransition(Instant timestamp) {
+        return nextTransition(timestamp, DateTimeZone.UTC);
+    }
+
+    /**
+     * Computes when the rule next changes between forbidden and allowed in a time zone
+     * @param timestamp the time to look from
+     * @param zone      the time zone the rule is in
+     * @return the first minute after timestamp with another answer, or null if the answer
+     *         doesn't change within a year
+     */
+    public Instant nextTransition(Instant timestamp, DateTimeZone zone) {
+        long transition = computeNextTransition(timestamp.getMillis(), zone);
+        return transition == NO_TRANSITION ? null : new Instant(transition);
+    }
+
+    /**
+     * Computes when the rule next changes after the time of a tick. The answer is remembered,
+     * every time up to the transition has the same next transition.
+     * @param clock the time of the tick, in the local time zone
+     * @return the time of the transition, or NO_TRANSITION
+     */
+    long nextTransitionMillis(RuleClock clock) {
+        long millis = clock.getMillis();
+        Transition transition = lastTransition;
+        if (transition != null && transition.zone.equals(clock.getZone())
+                && millis >= transition.from && millis < transition.at) {
+            return transition.at;
+        }
+        long at = computeNextTransition(millis, clock.getZone());
+        lastTransition = new Transition(clock.getZone(), millis, at);
+        return at;
+    }
+
+    /**
+     * Walks day by day from the time. During one day the week and date are fixed, so
+     * the day follows the minutes of the day in the mask of its group, where the next
+     * change is found a word at a time.
+     */
+    private long computeNextTransition(long millis, DateTimeZone zone) {
+        LocalDateTime time = new LocalDateTime(millis, zone);
+        LocalDate date = time.toLocalDate();
+        int minute = time.getMillisOfDay() / (int) MILLIS_PER_MINUTE;
+        boolean forbidden = isSet(getDayMask(date), minuteOfWeek(date, minute));
+        int from = minute + 1;
+        for (int day = 0; day <= MAX_TRANSITION_DAYS; day++) {
+            int found = nextChangeInDay(date, from, forbidden);
+            if (found >= 0) {
+                long local = date.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis() + found * MILLIS_PER_MINUTE;
+                // a minute that is skipped when the clock is put forward becomes the first minute after it
+                return Math.max(millis + 1, zone.convertLocalToUTC(local, false));
             }
+            date = date.plusDays(1);
+            from = 0;
         }
-        else {
-            if (now >= timePeriodStart && now < timePeriodEnd) {
-                return false;
+        return NO_TRANSITION;
+    }
+
+    /**
+     * @return the first minute of the day from 'from' where the answer isn't 'forbidden', or -1
+     */
+    private int nextChangeInDay(LocalDate date, int from, boolean forbidden) {
+        if (from >= MINUTES_PER_DAY) {
+            return -1;
+        }
+        long[] mask = getDayMask(date);
+        if (mask == NO_MINUTES) {
+            // parking is allowed the whole day
+            return forbidden ? from : -1;
+        }
+        int start = minuteOfWeek(date, 0);
+        int found = nextBit(mask, start + from, start + MINUTES_PER_DAY, !forbidden);
+        return found < 0 ? -1 : found - start;
+    }
+
+    /**
+     * @return the forbidden minutes of the week of the group of the day
+     */
+    private long[] getDayMask(LocalDate date) {
+        boolean oddWeek = (date.getWeekOfWeekyear() % 2) == 1;
+        return groupMasks[dayGroups[dayIndex(oddWeek, dateSlot(date.getMonthOfYear(), date.getDayOfMonth()))]];
+    }
+
+    private static int dayIndex(boolean oddWeek, int dateSlot) {
+        return oddWeek ? DATE_SLOTS + dateSlot : dateSlot;
+    }
+
+    private static int minuteOfWeek(LocalDate date, int minuteOfDay) {
+        return (date.getDayOfWeek() - 1) * MINUTES_PER_DAY + minuteOfDay;
+    }
+
+    /**
+     * Finds the first bit from 'from' up to 'to' that has a value
+     * @return the bit, or -1 if there is none
+     */
+    static int nextBit(long[] mask, int from, int to, boolean value) {
+        int word = from >>> 6;
+        long bits = (value ? mask[word] : ~mask[word]) & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return bit < to ? bit : -1;
+            }
+            word++;
+            if (word << 6 >= to) {
+                return -1;
             }
+            bits = value ? mask[word] : ~mask[word];
         }
+    }
 
-        int weekNumber = timestamp.get(DateTimeFieldType.weekOfWeekyear());
-        boolean oddWeek = (weekNumber % 2) == 1;
-        //check if forbidden week number
-        if (oddWeek && !forbiddenOddWeeks)
-            return false;
-        if (!oddWeek && !forbiddenEvenWeeks)
-            return false;
+    static int dateSlot(int month, int day) {
+        return (month - 1) * 31 + (day - 1);
+    }
 
-        int today = timestamp.get(DateTimeFieldType.monthOfYear()) * 100 + timestamp.get(DateTimeFieldType.dayOfMonth());
-        int datePeriodStart = startMonth * 100 + startDay;
-        int datePeriodEnd = endMonth * 100 + endDay;
+    static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
 
-        if (datePeriodStart < datePeriodEnd) {
-            if (today < datePeriodStart || today >= datePeriodEnd) {
-                return false;
+    static void set(long[] mask, int bit) {
+        mask[bit >>> 6] |= 1L << bit;
+    }
+
+    static boolean isSet(long[] mask, int bit) {
+        return (mask[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * One clause of a rule, ex. one line of a sign
+     */
+    private static final class Clause {
+        // forbidden minutes of the week, bit (dayOfWeek - 1) * 1440 + minuteOfDay
+        final long[] minuteMask = new long[words(MINUTES_PER_WEEK)];
+
+        // forbidden timeperiod during a day in minutes (ex. 07.30 is 7 * 60 + 30)
+        final int timePeriodStart;
+        final int timePeriodEnd;
+
+        // forbidden odd or even week
+        final boolean forbiddenOddWeeks;
+        final boolean forbiddenEvenWeeks;
+
+        // forbidden month and day, bit (month - 1) * 31 + (day - 1)
+        final long[] dateMask = new long[words(DATE_SLOTS)];
+
+        Clause(int daysOfWeek, int startHour, int startMinute, int endHour, int endMinute, boolean forbiddenOddWeeks, boolean forbiddenEvenWeeks, int startMonth, int startDay, int endMonth, int endDay) {
+            this.timePeriodStart = startHour * 60 + startMinute;
+            this.timePeriodEnd = endHour * 60 + endMinute;
+            this.forbiddenOddWeeks = forbiddenOddWeeks;
+            this.forbiddenEvenWeeks = forbiddenEvenWeeks;
+            compileDates(startMonth * 100 + startDay, endMonth * 100 + endDay);
+            for (int day = DateTimeConstants.MONDAY; day <= DateTimeConstants.SUNDAY; day++) {
+                if ((daysOfWeek & (1 << (day - DateTimeConstants.MONDAY))) != 0) {
+                    compileWeekDay(day);
+                }
             }
         }
-        else {
-            if (today >= datePeriodStart && today < datePeriodEnd) {
+
+        Clause(Clause other) {
+            this.timePeriodStart = other.timePeriodStart;
+            this.timePeriodEnd = other.timePeriodEnd;
+            this.forbiddenOddWeeks = other.forbiddenOddWeeks;
+            this.forbiddenEvenWeeks = other.forbiddenEvenWeeks;
+            System.arraycopy(other.minuteMask, 0, minuteMask, 0, minuteMask.length);
+            System.arraycopy(other.dateMask, 0, dateMask, 0, dateMask.length);
+        }
+
+        /**
+         * Reads a compiled clause that was written by writeTo, nothing is compiled again
+         */
+        Clause(ByteBuffer in) {
+            this.timePeriodStart = in.getInt();
+            this.timePeriodEnd = in.getInt();
+            byte weeks = in.get();
+            this.forbiddenOddWeeks = (weeks & 1) != 0;
+            this.forbiddenEvenWeeks = (weeks & 2) != 0;
+            for (int i = 0; i < minuteMask.length; i++) {
+                minuteMask[i] = in.getLong();
+            }
+            for (int i = 0; i < dateMask.length; i++) {
+                dateMask[i] = in.getLong();
+            }
+        }
+
+        void writeTo(ByteBuffer out) {
+            out.putInt(timePeriodStart);
+            out.putInt(timePeriodEnd);
+            out.put((byte) ((forbiddenOddWeeks ? 1 : 0) | (forbiddenEvenWeeks ? 2 : 0)));
+            for (long word : minuteMask) {
+                out.putLong(word);
+            }
+            for (long word : dateMask) {
+                out.putLong(word);
+            }
+        }
+
+        /**
+         * @return true if the clause forbids parking some time on a day of the parity and date
+         */
+        boolean isDayActive(boolean oddWeek, int dateSlot) {
+            if (oddWeek ? !forbiddenOddWeeks : !forbiddenEvenWeeks) {
                 return false;
             }
+            return isSet(dateMask, dateSlot);
+        }
+
+        void compileWeekDay(int dayOfWeek) {
+            int offset = (dayOfWeek - DateTimeConstants.MONDAY) * MINUTES_PER_DAY;
+            for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                // the hour is counted like clockhourOfDay, midnight is hour 24
+                int now = minute < 60 ? minute + MINUTES_PER_DAY : minute;
+                boolean forbidden;
+                if (timePeriodStart < timePeriodEnd) {
+                    forbidden = now >= timePeriodStart && now < timePeriodEnd;
+                }
+                else {
+                    forbidden = !(now >= timePeriodStart && now < timePeriodEnd);
+                }
+                if (forbidden) {
+                    set(minuteMask, offset + minute);
+                }
+            }
         }
 
-        return true;
+        private void compileDates(int datePeriodStart, int datePeriodEnd) {
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 31; day++) {
+                    int today = month * 100 + day;
+                    boolean forbidden;
+                    if (datePeriodStart < datePeriodEnd) {
+                        forbidden = today >= datePeriodStart && today < datePeriodEnd;
+                    }
+                    else {
+                        forbidden = !(today >= datePeriodStart && today < datePeriodEnd);
+                    }
+                    if (forbidden) {
+                        set(dateMask, dateSlot(month, day));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A computed transition, the rule has the same answer from 'from' until 'at'
+     */
+    private static final class Transition {
+        final DateTimeZone zone;
+        final long from;
+        final long at;
+
+        Transition(DateTimeZone zone, long from, long at) {
+            this.zone = zone;
+            this.from = from;
+            this.at = at;
+        }
+    }
+
+    /**
+     * The week parity and date slot of one day, these only change once a day
+     * so they are looked up once and reused for every rule.
+     */
+    private static final class DayFields {
+        final long epochDay;
+        final boolean oddWeek;
+        final int dateSlot;
+
+        private DayFields(long epochDay, boolean oddWeek, int dateSlot) {
+            this.epochDay = epochDay;
+            this.oddWeek = oddWeek;
+            this.dateSlot = dateSlot;
+        }
+
+        static DayFields of(long epochDay) {
+            Instant day = new Instant(epochDay * MINUTES_PER_DAY * MILLIS_PER_MINUTE);
+            int weekNumber = day.get(DateTimeFieldType.weekOfWeekyear());
+            return new DayFields(epochDay, (weekNumber % 2) == 1,
+                    dateSlot(day.get(DateTimeFieldType.monthOfYear()), day.get(DateTimeFieldType.dayOfMonth())));
+        }
     }
 }
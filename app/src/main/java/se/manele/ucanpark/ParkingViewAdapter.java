@@ -11,7 +11,11 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.support.v7.widget.RecyclerView;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import se.manele.ucanpark.parkingapp.R;
 
@@ -26,9 +30,14 @@ import static android.support.v4.content.ContextCompat.getColor;
  * to views that are displayed within a View, in this case a RecyclerView.
  */
 public class ParkingViewAdapter extends RecyclerView.Adapter<ParkingViewAdapter.ParkingViewHolder> {
-    private List<Parking> mDataset;
+    private ParkingStore mDataset;
+    // moved to the row that is bound, so binding doesn't create any objects
+    private ParkingStore.Row row;
     private LayoutInflater mInflater;
     private Context context;
+    // stable item ids, the same parking id always gets the same item id while it is in the data set
+    private final Map<Object, Long> itemIds = new HashMap<>();
+    private long nextItemId;
 
     /**
      * This class is a ViewHolder. A ViewHolder describes an item view (RecyclerView is a list of items)
@@ -66,14 +75,100 @@ public class ParkingViewAdapter extends RecyclerView.Adapter<ParkingViewAdapter.
      * The constructor of ParkingViewAdapter
      * @param context   Interface to global information about an application environment.
      * @param myDataset The data set to be bound to the views.
-     *                  In our case it's a list of Parking objects.
+     *                  In our case it's a store of parkings.
      */
-    public ParkingViewAdapter(Context context, List<Parking> myDataset) {
+    public ParkingViewAdapter(Context context, ParkingStore myDataset) {
         mDataset = myDataset;
         this.context = context;
 
         //create inflator to create instances of the parking view layout
         this.mInflater = LayoutInflater.from(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the data set and tells the RecyclerView exactly which rows changed,
+     * so that only those rows are bound again.
+     * @param parkings  the new data set
+     * @param changes   the changes from the current data set to the new one
+     */
+    public void setParkings(ParkingStore parkings, List<ParkingResults.Change> changes) {
+        mDataset = parkings;
+        row = null;
+        boolean removed = false;
+        for (ParkingResults.Change change : changes) {
+            switch (change.type) {
+                case INSERT:
+                    notifyItemRangeInserted(change.position, change.count);
+                    break;
+                case REMOVE:
+                    notifyItemRangeRemoved(change.position, change.count);
+                    removed = true;
+                    break;
+                case MOVE:
+                    notifyItemMoved(change.position, change.toPosition);
+                    break;
+                case CHANGE:
+                    notifyItemRangeChanged(change.position, change.count);
+                    break;
+            }
+        }
+        if (removed) {
+            forgetRemovedItemIds();
+        }
+    }
+
+    /**
+     * Forgets the item ids of parkings that are no longer in the data set, so the
+     * map doesn't grow with every parking that has ever been shown
+     */
+    private void forgetRemovedItemIds() {
+        Set<Object> keys = new HashSet<>();
+        for (int position = 0; position < mDataset.size(); position++) {
+            keys.add(getItemKey(getRow(position)));
+        }
+        itemIds.keySet().retainAll(keys);
+    }
+
+    /**
+     * Binds the rows of parkings whose status may have changed again
+     * @param positions the rows, in the current data set
+     */
+    public void notifyStatusChanged(int[] positions) {
+        for (int position : positions) {
+            if (position < mDataset.size()) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    private ParkingStore.Row getRow(int position) {
+        if (row == null) {
+            row = mDataset.row(position);
+        }
+        return row.moveTo(position);
+    }
+
+    /**
+     * Returns a stable id for the parking at a position, based on the id from the API
+     * @param position  The position of the item within the adapter's data set.
+     * @return the item id
+     */
+    @Override
+    public long getItemId(int position) {
+        Object key = getItemKey(getRow(position));
+        Long itemId = itemIds.get(key);
+        if (itemId == null) {
+            // ids are never used again, also not after the parking has been removed
+            itemId = nextItemId++;
+            itemIds.put(key, itemId);
+        }
+        return itemId;
+    }
+
+    private static Object getItemKey(ParkingStore.Row p) {
+        // without an id the parking is known by its place
+        return p.getId() != null ? p.getId() : p.getName() + "@" + p.getLatitude() + "," + p.getLongitude();
     }
 
     /**
@@ -169,7 +264,8 @@ public class ParkingViewAdapter extends RecyclerView.Adapter<ParkingViewAdapter.
      */
     @Override
     public void onBindViewHolder(ParkingViewHolder holder, int position) {
-        Parking p = mDataset.get(position);
+        long bind = PerfRecorder.begin("bind");
+        ParkingStore.Row p = getRow(position);
 
         holder.mTextViewName.setText(p.getName());
         holder.mTextViewInfo.setText(p.getExtraInformation());
@@ -177,10 +273,12 @@ public class ParkingViewAdapter extends RecyclerView.Adapter<ParkingViewAdapter.
         holder.latitude = p.getLatitude();
         holder.longitude = p.getLongitude();
         
-        holder.mSign.setImageResource(getIcon(p.getParkingStatus()));
-        holder.mParkingColor.setBackgroundColor(getParkingColor(p.getParkingStatus()));
-        holder.mTextViewPark.setText(getText(p.getParkingStatus(),p.getFreeSpots()));
-
+        // the status is remembered until the next transition, binding the row again only looks it up
+        Parking.ParkingStatus status = p.getParkingStatus(RuleClock.now());
+        holder.mSign.setImageResource(getIcon(status));
+        holder.mParkingColor.setBackgroundColor(getParkingColor(status));
+        holder.mTextViewPark.setText(getText(status, p.getFreeSpots()));
+        PerfRecorder.end(PerfRecorder.Metric.BIND, null, bind);
     }
 
     /**
@@ -0,0 +1,422 @@
+package se.manele.ucanpark;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class measures where the time of a refresh goes: the network and parsing of every
+ * feed, the rules, merging and sorting the list and binding the rows. Every measurement
+ * goes into a histogram, one for all feeds and one for the feed it belongs to, and into a
+ * ring buffer with the latest events. Nothing takes a lock, so it can be called from the
+ * fetch threads, the worker of ParkingResults and the main thread at the same time.
+ *
+ * It is off from the start. When it is off, begin returns 0 and every other method
+ * returns after reading one volatile field, so the code that is measured runs as before.
+ * Timed sections are also handed to a Tracer, in the app android.os.Trace, so that they
+ * show up in systrace.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class PerfRecorder {
+    // the number of events the ring buffer keeps, a power of two
+    static final int RING_SIZE = 1024;
+    private static final int RING_MASK = RING_SIZE - 1;
+    // one bucket for 0 and one for every power of two
+    static final int BUCKETS = 65;
+    private static final int NO_TAG = 0;
+
+    /**
+     * What is measured
+     */
+    public enum Metric {
+        CONNECT("connect", true),
+        FIRST_BYTE("first byte", true),
+        BYTES_READ("bytes read", false),
+        PARSE("parse", true),
+        ELEMENTS("elements", false),
+        RULE_PARSE("rule parse", true),
+        RULE_EVAL("rule evaluation", true),
+        MERGE("merge", true),
+        SORT("sort", true),
+        BIND("bind", true);
+
+        private final String label;
+        private final boolean time;
+
+        Metric(String label, boolean time) {
+            this.label = label;
+            this.time = time;
+        }
+
+        /**
+         * @return true if the values are nanoseconds, otherwise they are counts
+         */
+        public boolean isTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * This interface marks sections of a thread, ex. for systrace
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    private static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+
+        }
+
+        @Override
+        public void endSection() {
+
+        }
+    };
+
+    private static volatile boolean enabled;
+    private static volatile Tracer tracer = NO_TRACER;
+
+    private static final Histogram[] histograms = newHistograms();
+    // the histograms of every feed, and the id the feed has in the ring buffer
+    private static final ConcurrentMap<String, Tag> tags = new ConcurrentHashMap<>();
+    private static final AtomicLong nextTagId = new AtomicLong(NO_TAG + 1);
+
+    private static final AtomicLong nextEvent = new AtomicLong();
+    // an event is written between two writes of its sequence, so a reader can tell if it was overwritten
+    private static final AtomicLongArray eventSequences = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLongArray eventTimes = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLongArray eventKinds = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLongArray eventValues = new AtomicLongArray(RING_SIZE);
+
+    private PerfRecorder() {
+
+    }
+
+    /**
+     * @return true if measurements are recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the measurements on or off, what was recorded is kept
+     * @param enabled true to record
+     */
+    public static void setEnabled(boolean enabled) {
+        PerfRecorder.enabled = enabled;
+    }
+
+    /**
+     * Sets where timed sections are marked
+     * @param tracer the tracer, or null for none
+     */
+    public static void setTracer(Tracer tracer) {
+        PerfRecorder.tracer = tracer == null ? NO_TRACER : tracer;
+    }
+
+    /**
+     * Starts a timed section on this thread
+     * @param section the name of the section in the trace
+     * @return the start, to be given to end, or 0 if nothing is recorded
+     */
+    public static long begin(String section) {
+        if (!enabled) {
+            return 0;
+        }
+        tracer.beginSection(section);
+        // 0 means that nothing was started
+        return Math.max(1, System.nanoTime());
+    }
+
+    /**
+     * Ends a section started on this thread by begin, and records how long it took
+     * @param metric    what was measured
+     * @param tag       the feed it belongs to, or null
+     * @param start     what begin returned
+     */
+    public static void end(Metric metric, String tag, long start) {
+        if (start == 0) {
+            // begin didn't start anything, so there is no section to end
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        tracer.endSection();
+        add(metric, tag, nanos);
+    }
+
+    /**
+     * Records a value that is not a time, ex. a number of bytes
+     * @param metric    what was measured
+     * @param tag       the feed it belongs to, or null
+     * @param value     the value
+     */
+    public static void record(Metric metric, String tag, long value) {
+        if (enabled) {
+            add(metric, tag, value);
+        }
+    }
+
+    private static void add(Metric metric, String tag, long value) {
+        value = Math.max(0, value);
+        histograms[metric.ordinal()].add(value);
+        int tagId = NO_TAG;
+        if (tag != null) {
+            Tag t = getTag(tag);
+            t.histograms[metric.ordinal()].add(value);
+            tagId = t.id;
+        }
+
+        long sequence = nextEvent.getAndIncrement();
+        int slot = (int) (sequence & RING_MASK);
+        eventSequences.set(slot, -1);
+        eventTimes.set(slot, System.currentTimeMillis());
+        eventKinds.set(slot, (long) metric.ordinal() << 32 | tagId);
+        eventValues.set(slot, value);
+        eventSequences.set(slot, sequence);
+    }
+
+    private static Tag getTag(String name) {
+        Tag tag = tags.get(name);
+        if (tag == null) {
+            Tag created = new Tag((int) nextTagId.getAndIncrement(), name);
+            tag = tags.putIfAbsent(name, created);
+            if (tag == null) {
+                tag = created;
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Method for getting what has been recorded for all feeds together
+     * @param metric what was measured
+     * @return a copy of the histogram
+     */
+    public static Summary getSummary(Metric metric) {
+        return histograms[metric.ordinal()].summary();
+    }
+
+    /**
+     * Method for getting what has been recorded for one feed
+     * @param metric    what was measured
+     * @param tag       the feed
+     * @return a copy of the histogram, empty if nothing was recorded for the feed
+     */
+    public static Summary getSummary(Metric metric, String tag) {
+        Tag t = tags.get(tag);
+        return t == null ? new Summary(new long[BUCKETS], 0, 0, 0) : t.histograms[metric.ordinal()].summary();
+    }
+
+    /**
+     * Forgets everything that has been recorded
+     */
+    public static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        tags.clear();
+        for (int i = 0; i < RING_SIZE; i++) {
+            eventSequences.set(i, -1);
+        }
+    }
+
+    /**
+     * Writes the histograms and the latest events as text, ex. for dumpsys
+     * @param writer where to write
+     * @param events how many of the latest events to write, at most RING_SIZE
+     */
+    public static void dump(PrintWriter writer, int events) {
+        writer.println("Perf " + (enabled ? "enabled" : "disabled"));
+        for (Metric metric : Metric.values()) {
+            dump(writer, "  ", metric, getSummary(metric));
+        }
+        Map<String, Tag> sorted = new TreeMap<>(tags);
+        Map<Long, String> names = new TreeMap<>();
+        for (Tag tag : sorted.values()) {
+            names.put((long) tag.id, tag.name);
+            writer.println("  " + tag.name);
+            for (Metric metric : Metric.values()) {
+                dump(writer, "    ", metric, tag.histograms[metric.ordinal()].summary());
+            }
+        }
+
+        writer.println("  latest events");
+        long last = nextEvent.get();
+        long first = Math.max(0, last - Math.min(events, RING_SIZE));
+        for (long sequence = first; sequence < last; sequence++) {
+            int slot = (int) (sequence & RING_MASK);
+            long time = eventTimes.get(slot);
+            long kind = eventKinds.get(slot);
+            long value = eventValues.get(slot);
+            if (eventSequences.get(slot) != sequence) {
+                // overwritten while it was read, or not written yet
+                continue;
+            }
+            Metric metric = Metric.values()[(int) (kind >>> 32)];
+            String tag = names.get(kind & 0xFFFFFFFFL);
+            writer.println("    " + time + " " + metric + (tag == null ? "" : " " + tag) + " "
+                    + format(metric, value));
+        }
+    }
+
+    private static void dump(PrintWriter writer, String indent, Metric metric, Summary summary) {
+        if (summary.getCount() == 0) {
+            return;
+        }
+        writer.println(indent + metric + ": n=" + summary.getCount()
+                + " mean=" + format(metric, summary.getSum() / summary.getCount())
+                + " p50<=" + format(metric, summary.getPercentile(50))
+                + " p90<=" + format(metric, summary.getPercentile(90))
+                + " p99<=" + format(metric, summary.getPercentile(99))
+                + " max=" + format(metric, summary.getMax()));
+    }
+
+    private static String format(Metric metric, long value) {
+        if (!metric.isTime()) {
+            return Long.toString(value);
+        }
+        if (value < 10000) {
+            return value + " ns";
+        }
+        if (value < 10000000) {
+            return value / 1000 + " us";
+        }
+        return value / 1000000 + " ms";
+    }
+
+    private static Histogram[] newHistograms() {
+        Histogram[] histograms = new Histogram[Metric.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * The bucket of a value, 0 for 0 and otherwise the number of bits it takes
+     */
+    static int bucket(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * The histograms of one feed
+     */
+    private static class Tag {
+        final int id;
+        final String name;
+        final Histogram[] histograms = newHistograms();
+
+        Tag(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Counts values in buckets of powers of two, without locks
+     */
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long value) {
+            buckets.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long old = max.get();
+            while (value > old && !max.compareAndSet(old, value)) {
+                old = max.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        /**
+         * The fields are read one at a time, so a value added meanwhile may be half counted
+         */
+        Summary summary() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return new Summary(copy, count.get(), sum.get(), max.get());
+        }
+    }
+
+    /**
+     * A copy of a histogram
+     */
+    public static class Summary {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Summary(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Method for getting a percentile, rounded up to the end of its bucket
+         * @param percent from 0 to 100
+         * @return a value that at least that many percent of the values are less than or equal to
+         */
+        public long getPercentile(double percent) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            long wanted = (long) Math.ceil(total * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, wanted)) {
+                    long end = i == 0 ? 0 : (i == 64 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(end, max);
+                }
+            }
+            return max;
+        }
+    }
+}
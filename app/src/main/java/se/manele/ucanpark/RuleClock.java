@@ -0,0 +1,78 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+
+/**
+ * This class is the time that parking rules are checked against during one tick, ex. one
+ * minute. The fields that the rules need, minute of the week, week parity and day of the
+ * year, are taken out of the time once in the local time zone and then shared by every
+ * rule, so that no rule has to do any date arithmetic.
+ *
+ * A clock never changes. A new clock is a new tick, and statuses that were computed with
+ * an older clock are computed again.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class RuleClock {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    // the clock of the current minute, shared by everyone who asks during that minute
+    private static volatile RuleClock current;
+
+    private final long epochMinute;
+    private final DateTimeZone zone;
+    final int minuteOfWeek;
+    final boolean oddWeek;
+    final int dateSlot;
+
+    private RuleClock(long epochMinute, DateTimeZone zone) {
+        this.epochMinute = epochMinute;
+        this.zone = zone;
+        LocalDateTime time = new LocalDateTime(epochMinute * MILLIS_PER_MINUTE, zone);
+        this.minuteOfWeek = (time.getDayOfWeek() - 1) * ParkingTimeRules.MINUTES_PER_DAY + time.getMillisOfDay() / (int) MILLIS_PER_MINUTE;
+        this.oddWeek = (time.getWeekOfWeekyear() % 2) == 1;
+        this.dateSlot = ParkingTimeRules.dateSlot(time.getMonthOfYear(), time.getDayOfMonth());
+    }
+
+    /**
+     * Method for getting the clock of the current minute in the time zone of the phone.
+     * Every call during the same minute returns the same clock.
+     * @return the clock
+     */
+    public static RuleClock now() {
+        long epochMinute = Math.floorDiv(System.currentTimeMillis(), MILLIS_PER_MINUTE);
+        DateTimeZone zone = DateTimeZone.getDefault();
+        RuleClock clock = current;
+        if (clock == null || clock.epochMinute != epochMinute || !clock.zone.equals(zone)) {
+            clock = new RuleClock(epochMinute, zone);
+            current = clock;
+        }
+        return clock;
+    }
+
+    /**
+     * Method for getting the clock of any time
+     * @param millis    the time
+     * @param zone      the time zone the rules are in
+     * @return the clock of the minute the time is in
+     */
+    public static RuleClock at(long millis, DateTimeZone zone) {
+        return new RuleClock(Math.floorDiv(millis, MILLIS_PER_MINUTE), zone);
+    }
+
+    /**
+     * @return the time zone the fields of this clock are in
+     */
+    DateTimeZone getZone() {
+        return zone;
+    }
+
+    /**
+     * @return the start of the minute of this clock
+     */
+    public long getMillis() {
+        return epochMinute * MILLIS_PER_MINUTE;
+    }
+}
@@ -0,0 +1,329 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class finds parkings near a location without asking the API. The parkings are
+ * put in a grid of square cells, and a query only looks at the cells that are close
+ * enough. The index never changes after it has been built, so it can be used from
+ * any thread.
+ *
+ * The grid is laid out with an equirectangular projection around the middle of the
+ * parkings. Distances are measured with the same projection around the location of the
+ * query, which is exact to a few meters inside a city.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class SpatialIndex {
+    private static final double METERS_PER_DEGREE = DistanceEngine.METERS_PER_DEGREE;
+    // a radius of 800 m looks at about 7 x 7 cells
+    private static final double CELL_SIZE = 250;
+    // larger cells are used if a few parkings far away would make the grid too big
+    private static final long MAX_CELLS = 1 << 18;
+
+    // the parkings in cell order, never changed and never handed out
+    private final Parking[] parkings;
+    // the coordinates of every parking
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // the parkings of cell c are parkings[cellStart[c]] to parkings[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double metersPerDegreeLongitude;
+
+    /**
+     * Builds the index. Parkings without coordinates are left out.
+     * @param parkings the parkings, the list is not changed
+     */
+    public SpatialIndex(List<Parking> parkings) {
+        List<Parking> located = new ArrayList<>(parkings.size());
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        for (Parking parking : parkings) {
+            double lat = parking.getLatitude();
+            double lng = parking.getLongitude();
+            if (!hasLocation(lat, lng)) {
+                continue;
+            }
+            located.add(parking);
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+            minLng = Math.min(minLng, lng);
+            maxLng = Math.max(maxLng, lng);
+        }
+        if (located.isEmpty()) {
+            minLat = maxLat = minLng = maxLng = 0;
+        }
+        this.minLatitude = minLat;
+        this.minLongitude = minLng;
+        this.metersPerDegreeLongitude = metersPerDegreeLongitude((minLat + maxLat) / 2);
+        double width = (maxLng - minLng) * metersPerDegreeLongitude;
+        double height = (maxLat - minLat) * METERS_PER_DEGREE;
+        double size = CELL_SIZE;
+        while (((long) (width / size) + 1) * ((long) (height / size) + 1) > MAX_CELLS) {
+            size *= 2;
+        }
+        this.cellSize = size;
+        this.columns = (int) (width / size) + 1;
+        this.rows = (int) (height / size) + 1;
+
+        // counting sort of the parkings by cell
+        int count = located.size();
+        int[] cells = new int[count];
+        this.cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < count; i++) {
+            Parking parking = located.get(i);
+            cells[i] = cell(column(x(parking.getLongitude())), row(y(parking.getLatitude())));
+            cellStart[cells[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = Arrays.copyOf(cellStart, columns * rows);
+        this.parkings = new Parking[count];
+        this.latitudes = new double[count];
+        this.longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            Parking parking = located.get(i);
+            int position = next[cells[i]]++;
+            this.parkings[position] = new Parking(parking);
+            this.latitudes[position] = parking.getLatitude();
+            this.longitudes[position] = parking.getLongitude();
+        }
+    }
+
+    /**
+     * @return how many parkings are in the index
+     */
+    public int size() {
+        return parkings.length;
+    }
+
+    /**
+     * Method for getting all parkings of the index, ex. to save them
+     * @return copies of the parkings, in no special order
+     */
+    public List<Parking> getParkings() {
+        List<Parking> copies = new ArrayList<>(parkings.length);
+        for (Parking parking : parkings) {
+            copies.add(new Parking(parking));
+        }
+        return copies;
+    }
+
+    /**
+     * Finds the parkings within a radius of a location
+     * @param latitude  the location
+     * @param longitude the location
+     * @param radius    the radius in meters
+     * @return copies of the parkings with the distance set, closest first
+     */
+    public List<Parking> withinRadius(double latitude, double longitude, int radius) {
+        double x = x(longitude);
+        double y = y(latitude);
+        double metersPerDegree = metersPerDegreeLongitude(latitude);
+        double radiusSquared = (double) radius * radius;
+        // a meter east or west at the location is not a meter of the grid
+        double gridRadius = radius * metersPerDegreeLongitude / metersPerDegree;
+        int firstColumn = column(x - gridRadius);
+        int lastColumn = column(x + gridRadius);
+        int firstRow = row(y - radius);
+        int lastRow = row(y + radius);
+        Candidates found = new Candidates(16);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = cell(column, row);
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    double d = distanceSquared(i, latitude, longitude, metersPerDegree);
+                    if (d <= radiusSquared) {
+                        found.add(i, d);
+                    }
+                }
+            }
+        }
+        return found.toSortedList(latitude, longitude);
+    }
+
+    /**
+     * Finds the parkings closest to a location
+     * @param latitude  the location
+     * @param longitude the location
+     * @param n         how many parkings
+     * @return copies of the n closest parkings with the distance set, closest first
+     */
+    public List<Parking> nearest(double latitude, double longitude, int n) {
+        if (n <= 0 || parkings.length == 0) {
+            return Collections.emptyList();
+        }
+        double x = x(longitude);
+        double y = y(latitude);
+        int centerColumn = column(x);
+        int centerRow = row(y);
+        double metersPerDegree = metersPerDegreeLongitude(latitude);
+        // how many meters at the location a meter of the grid is at least
+        double scale = Math.min(1, metersPerDegree / metersPerDegreeLongitude);
+        Candidates heap = new Candidates(n);
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                // the top and bottom rows of the ring are whole, the others only have their ends
+                int step = row == centerRow - ring || row == centerRow + ring ? 1 : Math.max(1, 2 * ring);
+                for (int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+                    if (column < 0 || column >= columns) {
+                        continue;
+                    }
+                    int cell = cell(column, row);
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        heap.offer(i, distanceSquared(i, latitude, longitude, metersPerDegree), n);
+                    }
+                }
+            }
+            // every cell outside this ring is at least ring cells away
+            double outside = ring * cellSize * scale;
+            if (heap.size == n && heap.distances[0] <= outside * outside) {
+                break;
+            }
+        }
+        return heap.toSortedList(latitude, longitude);
+    }
+
+    private double distanceSquared(int i, double latitude, double longitude, double metersPerDegreeLongitude) {
+        double dx = (longitudes[i] - longitude) * metersPerDegreeLongitude;
+        double dy = (latitudes[i] - latitude) * METERS_PER_DEGREE;
+        return dx * dx + dy * dy;
+    }
+
+    private static double metersPerDegreeLongitude(double latitude) {
+        return DistanceEngine.metersPerDegreeLongitude(latitude);
+    }
+
+    private double x(double longitude) {
+        return (longitude - minLongitude) * metersPerDegreeLongitude;
+    }
+
+    private double y(double latitude) {
+        return (latitude - minLatitude) * METERS_PER_DEGREE;
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / cellSize)));
+    }
+
+    private int cell(int column, int row) {
+        return row * columns + column;
+    }
+
+    static boolean hasLocation(double latitude, double longitude) {
+        // the API sends 0 or nothing at all for parkings without a position
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude) && (latitude != 0 || longitude != 0);
+    }
+
+    /**
+     * Parkings found by a query and their squared distances. It is either a growing list
+     * or, for nearest, a max-heap of a fixed size where the farthest parking is first.
+     */
+    private class Candidates {
+        int[] indexes;
+        double[] distances;
+        int size;
+
+        Candidates(int capacity) {
+            indexes = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        void add(int index, double distance) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            indexes[size] = index;
+            distances[size] = distance;
+            size++;
+        }
+
+        /**
+         * Keeps the n closest parkings
+         */
+        void offer(int index, double distance, int n) {
+            if (size < n) {
+                // sift up
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (distances[parent] >= distance) {
+                        break;
+                    }
+                    indexes[child] = indexes[parent];
+                    distances[child] = distances[parent];
+                    child = parent;
+                }
+                indexes[child] = index;
+                distances[child] = distance;
+            }
+            else if (distance < distances[0]) {
+                // replace the farthest and sift down
+                int parent = 0;
+                while (true) {
+                    int child = 2 * parent + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    indexes[parent] = indexes[child];
+                    distances[parent] = distances[child];
+                    parent = child;
+                }
+                indexes[parent] = index;
+                distances[parent] = distance;
+            }
+        }
+
+        List<Parking> toSortedList(double latitude, double longitude) {
+            // the distances that are handed out are the same as DistanceEngine gives when the user moves
+            double[] foundLatitudes = new double[size];
+            double[] foundLongitudes = new double[size];
+            for (int i = 0; i < size; i++) {
+                foundLatitudes[i] = latitudes[indexes[i]];
+                foundLongitudes[i] = longitudes[indexes[i]];
+            }
+            int[] meters = new int[size];
+            DistanceEngine.distances(latitude, longitude, foundLatitudes, foundLongitudes, size, meters);
+            // distance in meters and position packed in one long, so a plain sort orders them
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) meters[i] << 32) | indexes[i];
+            }
+            Arrays.sort(keys);
+            List<Parking> found = new ArrayList<>(size);
+            for (long key : keys) {
+                Parking parking = new Parking(parkings[(int) key]);
+                parking.setDistance((int) (key >>> 32));
+                found.add(parking);
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package se.manele.ucanpark;
+
+import java.io.PrintWriter;
+
+/**
+ * This class records the stages of a cold start, from when the process started until the
+ * first row from the network is on the screen. Every stage is marked once with the time
+ * since the process started, so a start that is slower than before shows which stage
+ * got slower. All methods must be called on the main thread.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class StartupTimeline {
+    private static final long NOT_MARKED = -1;
+
+    /**
+     * The stages, in the order they usually happen
+     */
+    public enum Stage {
+        ACTIVITY_CREATE,
+        CONTENT_VIEW,
+        ACTIVITY_CREATED,
+        // the first row on the screen, usually from the snapshot
+        FIRST_ROW,
+        // the first location, coarse or the last known one
+        LOCATION,
+        FEEDS_STARTED,
+        // a location from the GPS that replaces the coarse one
+        FINE_LOCATION,
+        // the first row from the network on the screen
+        FIRST_FRESH_ROW
+    }
+
+    private final long processStartMillis;
+    private final long[] marks = new long[Stage.values().length];
+
+    /**
+     * The constructor of StartupTimeline
+     * @param processStartMillis when the process started, on the same clock as the marks
+     */
+    public StartupTimeline(long processStartMillis) {
+        this.processStartMillis = processStartMillis;
+        for (int i = 0; i < marks.length; i++) {
+            marks[i] = NOT_MARKED;
+        }
+    }
+
+    /**
+     * Marks a stage, only the first time counts
+     * @param stage     the stage
+     * @param nowMillis the time, on the same clock as the process start
+     * @return true if this was the first time
+     */
+    public boolean mark(Stage stage, long nowMillis) {
+        if (marks[stage.ordinal()] != NOT_MARKED) {
+            return false;
+        }
+        marks[stage.ordinal()] = Math.max(0, nowMillis - processStartMillis);
+        return true;
+    }
+
+    /**
+     * @return true if the stage has been marked
+     */
+    public boolean isMarked(Stage stage) {
+        return marks[stage.ordinal()] != NOT_MARKED;
+    }
+
+    /**
+     * @return the time of the stage since the process started, or -1 if it hasn't happened
+     */
+    public long getMillis(Stage stage) {
+        return marks[stage.ordinal()];
+    }
+
+    /**
+     * Writes the stages that have happened, with the time since the process started
+     * and since the stage before
+     * @param writer where to write
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Startup");
+        long last = 0;
+        for (Stage stage : Stage.values()) {
+            long millis = marks[stage.ordinal()];
+            if (millis != NOT_MARKED) {
+                writer.println("  " + stage + ": " + millis + " ms (+" + Math.max(0, millis - last) + " ms)");
+                last = Math.max(last, millis);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            long millis = marks[stage.ordinal()];
+            if (millis != NOT_MARKED) {
+                text.append(text.length() == 0 ? "" : ", ").append(stage).append(' ').append(millis).append(" ms");
+            }
+        }
+        return text.toString();
+    }
+}
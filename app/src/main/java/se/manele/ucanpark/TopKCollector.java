@@ -0,0 +1,120 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps only the k best parkings while a feed is parsed, in the order of
+ * Parking.DistanceComparator. The parkings are kept in a heap with the worst of them on
+ * top, so a new parking is only compared with that one and is dropped at once if it is
+ * worse. Memory stays the same however large the feed is, and a feed of n parkings
+ * costs n log k.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class TopKCollector implements NetworkUtils.ParkingSink {
+    private final long[] keys;
+    private final Parking[] parkings;
+    private int size;
+    // how many parkings have been added, it also keeps the feed order for equal parkings
+    private int count;
+
+    /**
+     * The constructor of TopKCollector
+     * @param k how many parkings to keep
+     */
+    public TopKCollector(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.keys = new long[k];
+        this.parkings = new Parking[k];
+    }
+
+    /**
+     * Adds a parking, it is kept if it is one of the k best so far
+     * @param parking the parking
+     * @return always true, the whole feed is read
+     */
+    @Override
+    public boolean add(Parking parking) {
+        int position = Math.min(count, ParkingStore.MAX_SIZE - 1);
+        count++;
+        long key = ParkingStore.sortKey(parking.getRawFreeSpots(), parking.getDistance(), position);
+        if (size < keys.length) {
+            siftUp(size++, key, parking);
+        }
+        else if (key < keys[0]) {
+            siftDown(0, key, parking);
+        }
+        return true;
+    }
+
+    /**
+     * Method for getting how many parkings have been added, kept or not
+     * @return the number of parkings
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Empties the collector
+     * @return the kept parkings, best first
+     */
+    public List<Parking> takeSorted() {
+        Parking[] sorted = new Parking[size];
+        // the worst is always on top, so the list is filled from the end
+        while (size > 0) {
+            sorted[size - 1] = parkings[0];
+            size--;
+            if (size > 0) {
+                long key = keys[size];
+                Parking parking = parkings[size];
+                parkings[size] = null;
+                siftDown(0, key, parking);
+            }
+            else {
+                parkings[0] = null;
+            }
+        }
+        List<Parking> list = new ArrayList<>(sorted.length);
+        for (Parking parking : sorted) {
+            list.add(parking);
+        }
+        return list;
+    }
+
+    private void siftUp(int index, long key, Parking parking) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[parent] >= key) {
+                break;
+            }
+            keys[index] = keys[parent];
+            parkings[index] = parkings[parent];
+            index = parent;
+        }
+        keys[index] = key;
+        parkings[index] = parking;
+    }
+
+    private void siftDown(int index, long key, Parking parking) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (key >= keys[child]) {
+                break;
+            }
+            keys[index] = keys[child];
+            parkings[index] = parkings[child];
+            index = child;
+        }
+        keys[index] = key;
+        parkings[index] = parking;
+    }
+}
@@ -0,0 +1,179 @@
+package se.manele.ucanpark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class tells when the status of parkings changes because of their rules. Every
+ * rule in the rule table of the store is put in a priority queue by the time of its next
+ * transition, and only one timer is set, for the transition that comes first. When it goes
+ * off only the rules whose transition it was are checked again, so nothing at all is done
+ * between transitions.
+ *
+ * Rules that haven't been compiled yet are not watched, since no row with them has been
+ * shown. The store tells the scheduler when the status of such a rule is first computed,
+ * and from then on it is watched too.
+ *
+ * All methods must be called on the thread the timer runs tasks on, in the app the main thread.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class TransitionScheduler {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private final Timer timer;
+    private final Listener listener;
+    private PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private ParkingStore parkings = ParkingStore.of(new ArrayList<Parking>());
+    // true for the rules of the store that are in the queue or were checked
+    private boolean[] watched = new boolean[0];
+    // when the timer is set to go off, or NO_TRANSITION if it isn't set
+    private long armedAt = ParkingTimeRules.NO_TRANSITION;
+
+    /**
+     * The timer that runs the scheduler, in the app a Handler
+     */
+    public interface Timer {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    /**
+     * This interface is told about the parkings whose status may have changed
+     */
+    public interface Listener {
+        /**
+         * @param positions the rows of the store that had a transition
+         * @param clock     the time of the transition
+         */
+        void onTransition(int[] positions, RuleClock clock);
+    }
+
+    /**
+     * The constructor of TransitionScheduler
+     * @param timer     runs the scheduler when the next transition comes
+     * @param listener  told about every transition
+     */
+    public TransitionScheduler(Timer timer, Listener listener) {
+        this.timer = timer;
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the parkings that are watched. Only the compiled rules of the store are
+     * put in the queue, so this is quick even for many parkings.
+     * @param parkings the parkings, ex. the list that is shown
+     */
+    public void setParkings(ParkingStore parkings) {
+        this.parkings.setStatusListener(null);
+        this.parkings = parkings;
+        parkings.setStatusListener(statusListener);
+        watched = new boolean[parkings.getRuleCount()];
+        RuleClock clock = RuleClock.now();
+        List<Entry> entries = new ArrayList<>(parkings.getRuleCount());
+        for (int rule = 0; rule < parkings.getRuleCount(); rule++) {
+            if (!parkings.isRuleCompiled(rule)) {
+                continue;
+            }
+            watched[rule] = true;
+            long at = parkings.getNextTransition(rule, clock);
+            if (at != ParkingTimeRules.NO_TRANSITION) {
+                entries.add(new Entry(at, rule));
+            }
+        }
+        // built from a collection the queue is heapified in linear time
+        queue = entries.isEmpty() ? new PriorityQueue<Entry>() : new PriorityQueue<>(entries);
+        arm();
+    }
+
+    /**
+     * Computes all transitions again from now and sets the timer, ex. when the app
+     * comes back after the timer has been stopped
+     */
+    public void start() {
+        setParkings(parkings);
+    }
+
+    /**
+     * Stops the timer until start or setParkings is called
+     */
+    public void stop() {
+        timer.cancel(fire);
+        armedAt = ParkingTimeRules.NO_TRANSITION;
+    }
+
+    private void arm() {
+        Entry next = queue.peek();
+        long at = next == null ? ParkingTimeRules.NO_TRANSITION : next.at;
+        if (at == armedAt) {
+            return;
+        }
+        timer.cancel(fire);
+        armedAt = at;
+        if (at != ParkingTimeRules.NO_TRANSITION) {
+            timer.schedule(fire, Math.max(0, at - System.currentTimeMillis()));
+        }
+    }
+
+    private final ParkingStore.StatusListener statusListener = new ParkingStore.StatusListener() {
+        @Override
+        public void onFirstStatus(int rule) {
+            if (watched[rule]) {
+                return;
+            }
+            watched[rule] = true;
+            long at = parkings.getNextTransition(rule, RuleClock.now());
+            if (at != ParkingTimeRules.NO_TRANSITION) {
+                queue.add(new Entry(at, rule));
+                arm();
+            }
+        }
+    };
+
+    private final Runnable fire = new Runnable() {
+        @Override
+        public void run() {
+            armedAt = ParkingTimeRules.NO_TRANSITION;
+            long now = System.currentTimeMillis();
+            RuleClock clock = RuleClock.now();
+            boolean[] changed = null;
+            while (!queue.isEmpty() && queue.peek().at <= now) {
+                int rule = queue.poll().rule;
+                if (changed == null) {
+                    changed = new boolean[parkings.getRuleCount()];
+                }
+                changed[rule] = true;
+                // never the same minute again, even if the time zone data is odd
+                long at = Math.max(parkings.getNextTransition(rule, clock), clock.getMillis() + MILLIS_PER_MINUTE);
+                if (at != ParkingTimeRules.NO_TRANSITION) {
+                    queue.add(new Entry(at, rule));
+                }
+            }
+            arm();
+            if (changed != null) {
+                listener.onTransition(parkings.getPositionsWithRules(changed), clock);
+            }
+        }
+    };
+
+    /**
+     * A rule, by its index in the rule table, and the time of its next transition
+     */
+    private static class Entry implements Comparable<Entry> {
+        final long at;
+        final int rule;
+
+        Entry(long at, int rule) {
+            this.at = at;
+            this.rule = rule;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(at, other.at);
+        }
+    }
+}
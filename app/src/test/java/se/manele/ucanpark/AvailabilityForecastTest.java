@@ -0,0 +1,127 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the answers of AvailabilityForecast with checking every rule minute by minute.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class AvailabilityForecastTest {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final DateTimeZone ZONE = DateTimeZone.forID("Europe/Stockholm");
+    private static final int SLOT_MINUTES = 15;
+    // the horizon starts in the middle of a slot's worth of minutes and has the change to summer time
+    private static final long FROM = new DateTime(2021, 3, 26, 21, 7, ZONE).getMillis();
+    private static final long HORIZON = 3 * 24 * 60 * MILLIS_PER_MINUTE;
+
+    private final List<ParkingTimeRules> rules = new ArrayList<>();
+    private final ParkingStore parkings = store();
+
+    @Test
+    public void timelinesMatchTheRulesEveryMinute() {
+        AvailabilityForecast forecast = AvailabilityForecast.build(parkings, FROM, HORIZON, SLOT_MINUTES, ZONE);
+        for (long millis = FROM; millis < FROM + HORIZON; millis += MILLIS_PER_MINUTE) {
+            RuleClock clock = RuleClock.at(millis, ZONE);
+            for (int i = 0; i < parkings.size(); i++) {
+                if (forecast.getTimeline(i).isForbiddenAt(millis) != isForbidden(i, clock)) {
+                    fail("row " + i + " at " + new DateTime(millis, ZONE));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void allowedPositionsMatchAScan() {
+        AvailabilityForecast forecast = AvailabilityForecast.build(parkings, FROM, HORIZON, SLOT_MINUTES, ZONE);
+        long slot = SLOT_MINUTES * MILLIS_PER_MINUTE;
+        Random random = new Random(7);
+        List<long[]> queries = new ArrayList<>();
+        // the whole horizon, on slot edges, and outside the horizon on both sides
+        queries.add(new long[] { FROM, FROM + HORIZON });
+        queries.add(new long[] { FROM + slot, FROM + 5 * slot });
+        queries.add(new long[] { FROM - HORIZON, FROM + slot });
+        queries.add(new long[] { FROM + HORIZON - slot, FROM + 2 * HORIZON });
+        queries.add(new long[] { FROM - 2 * slot, FROM - slot });
+        queries.add(new long[] { FROM + 3 * slot, FROM + 3 * slot });
+        for (int i = 0; i < 200; i++) {
+            long from = FROM - slot + (long) (random.nextDouble() * (HORIZON + 2 * slot));
+            long to = from + (long) (random.nextDouble() * 12 * 60 * MILLIS_PER_MINUTE);
+            queries.add(new long[] { from, to });
+        }
+        for (long[] query : queries) {
+            int[] expected = scan(query[0], query[1], slot);
+            assertArrayEquals(new DateTime(query[0], ZONE) + " to " + new DateTime(query[1], ZONE),
+                    expected, forecast.getAllowedPositions(query[0], query[1]));
+            for (int i = 0; i < parkings.size(); i++) {
+                assertEquals(Arrays.binarySearch(expected, i) >= 0, forecast.isAllowed(i, query[0], query[1]));
+            }
+        }
+    }
+
+    /**
+     * The rows that are not forbidden in any minute of the slots between two times
+     */
+    private int[] scan(long from, long to, long slot) {
+        long start = Math.max(from, FROM);
+        long end = Math.min(to, FROM + HORIZON);
+        int count = 0;
+        int[] allowed = new int[parkings.size()];
+        for (int i = 0; i < parkings.size(); i++) {
+            boolean forbidden = false;
+            if (end > start) {
+                // out to whole slots, but not outside the horizon
+                long first = FROM + (start - FROM) / slot * slot;
+                long last = Math.min(FROM + HORIZON, FROM + ((end - 1 - FROM) / slot + 1) * slot);
+                for (long millis = first; millis < last && !forbidden; millis += MILLIS_PER_MINUTE) {
+                    forbidden = isForbidden(i, RuleClock.at(millis, ZONE));
+                }
+            }
+            if (!forbidden) {
+                allowed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(allowed, count);
+    }
+
+    private boolean isForbidden(int position, RuleClock clock) {
+        ParkingTimeRules rule = rules.get(position);
+        return rule != null && rule.isParkingForbidden(clock);
+    }
+
+    private ParkingStore store() {
+        List<Parking> list = new ArrayList<>();
+        // forbidden at the start of the horizon, on the night to summer time, short and at the end of the day
+        add(list, "a", new ParkingTimeRules(5, 0, 0, 24, 0, true, true, 1, 1, 12, 31));
+        add(list, "b", ParkingTimeRules.onDays(0x7F, 22, 0, 6, 0, true, true, 1, 1, 12, 31));
+        add(list, "c", new ParkingTimeRules(6, 7, 30, 11, 0, true, true, 1, 1, 12, 31));
+        add(list, "d", new ParkingTimeRules(7, 23, 59, 24, 0, true, true, 1, 1, 12, 31));
+        add(list, "e", ParkingTimeRules.onDays(0x1F, 8, 0, 18, 0, true, true, 3, 28, 11, 1));
+        add(list, "f", ParkingTimeRules.onDays(0x7F, 2, 0, 3, 0, true, true, 1, 1, 12, 31));
+        // the same rule as a, and parkings without a rule
+        add(list, "a", rules.get(0));
+        add(list, null, null);
+        add(list, "Avgift", null);
+        return ParkingStore.of(list);
+    }
+
+    private void add(List<Parking> list, String text, ParkingTimeRules rule) {
+        Parking parking = new Parking();
+        parking.setId(String.valueOf(list.size()));
+        parking.setExtraInformation(text, rule);
+        list.add(parking);
+        rules.add(rule);
+    }
+}
@@ -0,0 +1,170 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the rules that ExtraInfoParser reads from texts, and that a rule joined from
+ * several clauses forbids parking exactly when one of its clauses does.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ExtraInfoParserTest {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final Instant FROM = new DateTime(2020, 6, 1, 0, 0, DateTimeZone.UTC).toInstant();
+    private static final Instant TO = new DateTime(2021, 6, 1, 0, 0, DateTimeZone.UTC).toInstant();
+    private static final Instant TWO_WEEKS = new DateTime(2020, 6, 15, 0, 0, DateTimeZone.UTC).toInstant();
+
+    private static final int MONDAY_TO_FRIDAY = 0x1F;
+
+    @Test
+    public void readsOneClause() {
+        ParkingTimeRules rule = ExtraInfoParser.parse("P-förbud torsdagar klockan 02.00 - 07.00 jämna veckor");
+        assertEquals(1, rule.getClauseCount());
+        assertSameMinutes(new ParkingTimeRules(4, 2, 0, 7, 0, false, true, 1, 1, 12, 31), rule, FROM, TWO_WEEKS, 1);
+    }
+
+    @Test
+    public void readsDates() {
+        ParkingTimeRules rule = ExtraInfoParser.parse(
+                "P-förbud onsdagar klockan 08.00 - 24.00 udda veckor under tiden 15:e november - 1:a april");
+        assertSameMinutes(new ParkingTimeRules(3, 8, 0, 24, 0, true, false, 11, 15, 4, 1), rule, FROM, TO, 13);
+    }
+
+    @Test
+    public void readsDayRanges() {
+        ParkingTimeRules weekdays = weekdays(MONDAY_TO_FRIDAY);
+        assertSameMinutes(weekdays, ExtraInfoParser.parse("P-förbud mån-fredagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        assertSameMinutes(weekdays, ExtraInfoParser.parse("P-förbud mån–fredagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        assertSameMinutes(weekdays, ExtraInfoParser.parse("P-förbud måndagar till fredagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        assertSameMinutes(weekdays, ExtraInfoParser.parse("P-förbud vardagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        // over the weekend: friday, saturday, sunday and monday
+        assertSameMinutes(weekdays(0x71), ExtraInfoParser.parse("P-förbud fre-måndagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        // a list is not a range
+        assertSameMinutes(weekdays(0x09), ExtraInfoParser.parse("P-förbud måndagar och torsdagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+    }
+
+    @Test
+    public void otherWordsAreNotDays() {
+        ParkingTimeRules thursday = weekdays(0x08);
+        // "tillfälligt" and "från" start like tisdag and fredag
+        assertSameMinutes(thursday, ExtraInfoParser.parse("P-förbud tillfälligt torsdagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        assertSameMinutes(thursday, ExtraInfoParser.parse("P-förbud från torsdagar klockan 08.00 - 18.00"), FROM, TWO_WEEKS, 1);
+        assertNull(ExtraInfoParser.parse("P-förbud tilldagar klockan 08.00 - 18.00"));
+        assertNull(ExtraInfoParser.parse("Avgift vardagar 08-18"));
+    }
+
+    @Test
+    public void readsEveryClause() {
+        ParkingTimeRules rule = ExtraInfoParser.parse("P-förbud torsdagar klockan 02.00 - 07.00 jämna veckor\n"
+                + "P-förbud fredagar klockan 22.00 - 06.00 udda veckor under tiden 1:a april - 15:e november "
+                + "lördagar klockan 10.00 - 12.00");
+        assertEquals(3, rule.getClauseCount());
+        List<ParkingTimeRules> clauses = new ArrayList<>();
+        clauses.add(new ParkingTimeRules(4, 2, 0, 7, 0, false, true, 1, 1, 12, 31));
+        clauses.add(new ParkingTimeRules(5, 22, 0, 6, 0, true, false, 4, 1, 11, 15));
+        clauses.add(new ParkingTimeRules(6, 10, 0, 12, 0, true, true, 1, 1, 12, 31));
+        assertSameMinutes(ParkingTimeRules.union(clauses), rule, FROM, TO, 7);
+    }
+
+    @Test
+    public void unionMatchesItsClausesEveryMinute() {
+        Random random = new Random(42);
+        int[][] times = { { 7, 30, 11, 0 }, { 0, 0, 24, 0 }, { 22, 0, 6, 0 }, { 8, 0, 18, 0 }, { 23, 59, 24, 0 } };
+        int[][] dates = { { 1, 1, 12, 31 }, { 4, 1, 11, 15 }, { 11, 15, 4, 1 }, { 12, 31, 1, 2 } };
+        for (int test = 0; test < 8; test++) {
+            int count = 2 + random.nextInt(5);
+            List<ParkingTimeRules> rules = new ArrayList<>();
+            List<ParkingTimeRulesTest.BaselineRules> baselines = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int day = 1 + random.nextInt(7);
+                int[] time = times[random.nextInt(times.length)];
+                int[] date = dates[random.nextInt(dates.length)];
+                boolean odd = random.nextInt(3) != 0;
+                boolean even = !odd || random.nextBoolean();
+                rules.add(new ParkingTimeRules(day, time[0], time[1], time[2], time[3], odd, even,
+                        date[0], date[1], date[2], date[3]));
+                baselines.add(new ParkingTimeRulesTest.BaselineRules(day, time[0], time[1], time[2], time[3], odd, even,
+                        date[0], date[1], date[2], date[3]));
+            }
+            ParkingTimeRules union = ParkingTimeRules.union(rules);
+            // a step of 7 minutes hits every minute of the hour over the year
+            for (long millis = FROM.getMillis(); millis < TO.getMillis(); millis += 7 * MILLIS_PER_MINUTE) {
+                Instant timestamp = new Instant(millis);
+                boolean expected = false;
+                for (ParkingTimeRulesTest.BaselineRules baseline : baselines) {
+                    expected |= baseline.isParkingForbidden(timestamp);
+                }
+                if (union.isParkingForbidden(timestamp) != expected) {
+                    fail("union " + test + " at " + timestamp + " should be " + (expected ? "forbidden" : "allowed"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void threadsShareTheRuleOfAText() throws InterruptedException {
+        final String text = "P-förbud tisdagar klockan 08.00 - 12.00 udda veckor";
+        final ParkingTimeRules[] rules = new ParkingTimeRules[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[rules.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    // a copy of the text, so only the cache can make the rules the same
+                    rules[index] = ExtraInfoParser.getRules(new String(text));
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (ParkingTimeRules rule : rules) {
+            assertSame(rules[0], rule);
+        }
+        assertSame(rules[0], ExtraInfoParser.getRules(text));
+    }
+
+    /**
+     * A rule forbidden from 08.00 to 18.00 on some days
+     */
+    private static ParkingTimeRules weekdays(int days) {
+        return ParkingTimeRules.onDays(days, 8, 0, 18, 0, true, true, 1, 1, 12, 31);
+    }
+
+    private static void assertSameMinutes(ParkingTimeRules expected, ParkingTimeRules actual, Instant from, Instant to,
+                                          int stepMinutes) {
+        if (actual == null) {
+            fail("the text has no rule");
+        }
+        for (long millis = from.getMillis(); millis < to.getMillis(); millis += stepMinutes * MILLIS_PER_MINUTE) {
+            Instant timestamp = new Instant(millis);
+            if (expected.isParkingForbidden(timestamp) != actual.isParkingForbidden(timestamp)) {
+                fail("the rules differ at " + timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package se.manele.ucanpark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that FeedFetcher finishes every feed, also after it has been shut down.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class FeedFetcherTest {
+    private final List<String> calls = new ArrayList<>();
+    private List<Parking> merged;
+
+    @Test
+    public void fetchAfterShutdownFinishesTheFeeds() {
+        FeedFetcher fetcher = new FeedFetcher(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        }, 15000, 20, 200);
+        fetcher.shutdown();
+
+        fetcher.fetch(Collections.singletonList(new ParkingFeed("http://127.0.0.1:1/feed", "PublicTollParking")),
+                new FeedFetcher.Listener() {
+                    @Override
+                    public void onFeedBatch(ParkingFeed feed, List<Parking> parkings) {
+                        calls.add("batch");
+                    }
+
+                    @Override
+                    public void onFeedFinished(ParkingFeed feed, List<Parking> parkings, boolean timedOut, boolean complete) {
+                        calls.add("finished " + feed.getParkingTypeName() + " " + timedOut + " " + complete);
+                    }
+
+                    @Override
+                    public void onAllFeedsFinished(List<Parking> parkings) {
+                        merged = parkings;
+                    }
+                });
+
+        assertEquals(Collections.singletonList("finished PublicTollParking false false"), calls);
+        assertNotNull(merged);
+        assertEquals(0, merged.size());
+    }
+}
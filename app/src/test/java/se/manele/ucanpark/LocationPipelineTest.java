@@ -0,0 +1,77 @@
+package se.manele.ucanpark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how the radius of the fetches of LocationPipeline grows and shrinks.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class LocationPipelineTest {
+    // about 10 km apart
+    private static final double SPARSE_LATITUDE = 57.70;
+    private static final double DENSE_LATITUDE = 57.79;
+    private static final double LONGITUDE = 11.97;
+
+    private final List<Integer> fetches = new ArrayList<>();
+    private final LocationPipeline pipeline = new LocationPipeline(new TransitionScheduler.Timer() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            task.run();
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+
+        }
+    }, new LocationPipeline.Listener() {
+        @Override
+        public void onRelocate(double latitude, double longitude) {
+
+        }
+
+        @Override
+        public void onFetch(double latitude, double longitude, int radius) {
+            fetches.add(radius);
+        }
+    });
+
+    @Test
+    public void sparseAreaDoesNotShrinkBackAfterAGrow() {
+        pipeline.onLocation(SPARSE_LATITUDE, LONGITUDE);
+        pipeline.onFetchFinished(5);
+        // the top parkings of every feed are many at the larger radius
+        pipeline.onFetchFinished(500);
+        assertEquals(2 * LocationPipeline.START_RADIUS, pipeline.getRadius());
+
+        // later fetches in the same place need one fetch each
+        pipeline.refetch();
+        pipeline.onFetchFinished(500);
+        pipeline.refetch();
+        pipeline.onFetchFinished(500);
+        assertEquals(4, fetches.size());
+        assertEquals(2 * LocationPipeline.START_RADIUS, pipeline.getRadius());
+    }
+
+    @Test
+    public void denseAreaShrinks() {
+        pipeline.onLocation(SPARSE_LATITUDE, LONGITUDE);
+        pipeline.onFetchFinished(5);
+        pipeline.onFetchFinished(500);
+
+        // far from the sparse place the radius may shrink again
+        pipeline.onLocation(DENSE_LATITUDE, LONGITUDE);
+        assertEquals(3, fetches.size());
+        pipeline.onFetchFinished(500);
+        assertEquals(LocationPipeline.START_RADIUS, pipeline.getRadius());
+        pipeline.refetch();
+        pipeline.onFetchFinished(500);
+        assertEquals(LocationPipeline.MIN_RADIUS, pipeline.getRadius());
+    }
+}
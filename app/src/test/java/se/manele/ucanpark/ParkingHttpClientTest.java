@@ -0,0 +1,178 @@
+package se.manele.ucanpark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs ParkingHttpClient against a small server on the loopback, ex. the
+ * answers 200, 304 Not Modified and gzip.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingHttpClientTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private String url;
+    private String gzipUrl;
+    // the If-None-Match of every request, or null if it had none
+    private final List<String> conditions = new ArrayList<>();
+    private String body = "<ArrayOfParking></ArrayOfParking>";
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/feed", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, false);
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, true);
+            }
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        url = base + "/feed?latitude=57.7";
+        gzipUrl = base + "/gzip?latitude=57.7";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, boolean gzip) throws IOException {
+        String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+        synchronized (conditions) {
+            conditions.add(condition);
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        if (ETAG.equals(condition)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(UTF_8);
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (gzip && accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(zipped);
+            out.write(bytes);
+            out.close();
+            bytes = zipped.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @Test
+    public void notModifiedReturnsTheCachedResult() throws Exception {
+        ParkingHttpClient client = new ParkingHttpClient(5000, 5000);
+        CountingParser parser = new CountingParser();
+        String first = client.get(url, parser);
+        assertEquals(body, first);
+        assertEquals(1, parser.calls);
+
+        String second = client.get(url, parser);
+        assertSame(first, second);
+        assertEquals(1, parser.calls);
+        assertEquals(ETAG, conditions.get(1));
+
+        ParkingHttpClient.FeedStats stats = client.getStats().get(url.substring(0, url.indexOf('?')));
+        assertEquals(2, stats.getRequests());
+        assertEquals(1, stats.getNotModified());
+    }
+
+    @Test
+    public void gzipIsDecoded() throws Exception {
+        StringBuilder text = new StringBuilder("<ArrayOfParking>");
+        for (int i = 0; i < 200; i++) {
+            text.append("<Parking><Id>").append(i).append("</Id></Parking>");
+        }
+        body = text.append("</ArrayOfParking>").toString();
+        ParkingHttpClient client = new ParkingHttpClient(5000, 5000);
+        assertEquals(body, client.get(gzipUrl, new CountingParser()));
+
+        ParkingHttpClient.FeedStats stats = client.getStats().get(gzipUrl.substring(0, gzipUrl.indexOf('?')));
+        assertEquals(body.length(), stats.getBodyBytes());
+        assertTrue(stats.getWireBytes() < stats.getBodyBytes());
+    }
+
+    @Test
+    public void otherModeIsNotAnsweredFromTheCache() throws Exception {
+        ParkingHttpClient client = new ParkingHttpClient(5000, 5000);
+        CountingParser parser = new CountingParser();
+        client.get(url, null, parser, null);
+        client.get(url, "top 5", parser, null);
+        assertEquals(2, parser.calls);
+        assertNull(conditions.get(1));
+
+        // every mode remembers its own response
+        client.get(url, "top 5", parser, null);
+        assertEquals(2, parser.calls);
+    }
+
+    @Test
+    public void cancelledCallIsNotSent() throws Exception {
+        ParkingHttpClient client = new ParkingHttpClient(5000, 5000);
+        ParkingHttpClient.Call call = new ParkingHttpClient.Call();
+        call.cancel();
+        try {
+            client.get(url, null, new CountingParser(), call);
+            fail("a cancelled call should throw");
+        }
+        catch (InterruptedIOException e) {
+            assertTrue(conditions.isEmpty());
+        }
+    }
+
+    /**
+     * Reads the body as text and counts how often it is called
+     */
+    private static class CountingParser implements ParkingHttpClient.ResponseParser<String> {
+        int calls;
+
+        @Override
+        public String parse(InputStream in) throws IOException {
+            calls++;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package se.manele.ucanpark;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies the changes that ParkingResults publishes to the list that was shown before,
+ * the way the RecyclerView does, and checks that the result is the new list.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingResultsTest {
+    private static final String FEED = "PublicTollParking";
+    private static final double LATITUDE = 57.70;
+    private static final double LONGITUDE = 11.97;
+    // about 111 m between two parkings
+    private static final double STEP = 0.001;
+
+    private final BlockingQueue<Published> published = new LinkedBlockingQueue<>();
+    private final ParkingResults results = new ParkingResults(new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    }, new ParkingResults.Listener() {
+        @Override
+        public void onResultsChanged(ParkingStore parkings, List<ParkingResults.Change> changes, ParkingResults.Counts counts) {
+            published.add(new Published(parkings, changes));
+        }
+    });
+    // the rows as the RecyclerView shows them
+    private List<Shown> shown = new ArrayList<>();
+
+    @After
+    public void stopResults() {
+        results.shutdown();
+    }
+
+    @Test
+    public void insertsAreMergedInOrder() throws InterruptedException {
+        results.add(FEED, Arrays.asList(parking("a", 100, 5), parking("c", 300, 5)));
+        apply(next());
+        results.add(FEED, Arrays.asList(parking("b", 200, 5), parking("d", 400, 5), parking("0", 50, 5)));
+        Published next = next();
+        assertEquals(3, count(next, ParkingResults.Change.Type.INSERT));
+        apply(next);
+        assertIds("0", "a", "b", "c", "d");
+    }
+
+    @Test
+    public void updatesStayOrMove() throws InterruptedException {
+        results.add(FEED, Arrays.asList(parking("a", 100, 5), parking("b", 200, 5), parking("c", 300, 5)));
+        apply(next());
+
+        // b only changes its free spaces, c moves to the front
+        results.add(FEED, Arrays.asList(parking("b", 200, 7), parking("c", 50, 5)));
+        Published next = next();
+        assertEquals(1, count(next, ParkingResults.Change.Type.CHANGE));
+        apply(next);
+        assertIds("c", "a", "b");
+
+        // nothing changed, nothing is published
+        results.add(FEED, Arrays.asList(parking("a", 100, 5)));
+        assertNull(published.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void parkingsThatAreNotSentAgainAreRemoved() throws InterruptedException {
+        results.beginRound();
+        results.add(FEED, Arrays.asList(parking("a", 100, 5), parking("b", 200, 5), parking("c", 300, 5),
+                parking("d", 400, 5)));
+        apply(next());
+
+        results.beginRound();
+        results.add(FEED, Arrays.asList(parking("a", 100, 5), parking("d", 400, 5)));
+        results.add("ResidentialParking", Arrays.asList(parking("e", 250, 5)));
+        apply(next());
+        results.finishFeed(FEED, true);
+        Published next = next();
+        // b and c are not next to each other any more
+        assertEquals(2, count(next, ParkingResults.Change.Type.REMOVE));
+        apply(next);
+        assertIds("a", "e", "d");
+    }
+
+    @Test
+    public void smallMoveBecomesMoves() throws InterruptedException {
+        results.relocate(LATITUDE, LONGITUDE);
+        List<Parking> line = line(20);
+        results.add(FEED, line);
+        apply(next());
+
+        // past the second parking, it comes first and the first one comes third
+        results.relocate(LATITUDE + 1.2 * STEP, LONGITUDE);
+        Published next = next();
+        assertTrue(count(next, ParkingResults.Change.Type.MOVE) > 0);
+        assertEquals(0, count(next, ParkingResults.Change.Type.REMOVE));
+        apply(next);
+        assertIds("1", "2", "0", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19");
+    }
+
+    @Test
+    public void longJumpReplacesTheList() throws InterruptedException {
+        results.relocate(LATITUDE, LONGITUDE);
+        results.add(FEED, line(100));
+        apply(next());
+
+        // from the other end the order is reversed, which takes too many moves
+        results.relocate(LATITUDE + 100 * STEP, LONGITUDE);
+        Published next = next();
+        assertEquals(2, next.changes.size());
+        assertEquals(ParkingResults.Change.Type.REMOVE, next.changes.get(0).type);
+        assertEquals(ParkingResults.Change.Type.INSERT, next.changes.get(1).type);
+        apply(next);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(99 - i), next.parkings.row(i).getId());
+        }
+    }
+
+    private Published next() throws InterruptedException {
+        Published next = published.poll(5, TimeUnit.SECONDS);
+        assertNotNull("nothing was published", next);
+        return next;
+    }
+
+    private static int count(Published published, ParkingResults.Change.Type type) {
+        int count = 0;
+        for (ParkingResults.Change change : published.changes) {
+            count += change.type == type ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Applies the changes to the shown rows. Inserted and changed rows are bound again
+     * from the new list, moved rows keep what they showed.
+     */
+    private void apply(Published next) {
+        List<Shown> rows = new ArrayList<>(shown);
+        for (ParkingResults.Change change : next.changes) {
+            switch (change.type) {
+                case INSERT:
+                    for (int i = 0; i < change.count; i++) {
+                        rows.add(change.position + i, null);
+                    }
+                    break;
+                case REMOVE:
+                    assertTrue(change + " is outside " + rows.size(), change.position + change.count <= rows.size());
+                    for (int i = 0; i < change.count; i++) {
+                        rows.remove(change.position);
+                    }
+                    break;
+                case MOVE:
+                    rows.add(change.toPosition, rows.remove(change.position));
+                    break;
+                case CHANGE:
+                    for (int i = 0; i < change.count; i++) {
+                        assertNotNull(rows.get(change.position + i));
+                        rows.set(change.position + i, null);
+                    }
+                    break;
+            }
+        }
+        ParkingStore store = next.parkings;
+        assertEquals(store.size(), rows.size());
+        List<Shown> bound = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Shown expected = new Shown(store.row(i));
+            Shown row = rows.get(i);
+            if (row != null) {
+                // a row that wasn't bound again must still show the right parking
+                assertEquals("row " + i, expected, row);
+            }
+            bound.add(expected);
+        }
+        shown = bound;
+    }
+
+    private void assertIds(String... ids) {
+        assertEquals(ids.length, shown.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], shown.get(i).id);
+        }
+    }
+
+    private static Parking parking(String id, int distance, int freeSpots) {
+        Parking parking = new Parking();
+        parking.setId(id);
+        parking.setName("Parking " + id);
+        parking.setDistance(distance);
+        parking.setFreeSpots(freeSpots);
+        return parking;
+    }
+
+    /**
+     * Parkings north of the start, one STEP apart, with ids from 0
+     */
+    private static List<Parking> line(int n) {
+        List<Parking> line = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Parking parking = parking(String.valueOf(i), 0, 5);
+            parking.setLatitude(LATITUDE + i * STEP);
+            parking.setLongitude(LONGITUDE);
+            line.add(parking);
+        }
+        return line;
+    }
+
+    private static class Published {
+        final ParkingStore parkings;
+        final List<ParkingResults.Change> changes;
+
+        Published(ParkingStore parkings, List<ParkingResults.Change> changes) {
+            this.parkings = parkings;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * What a row shows
+     */
+    private static class Shown {
+        final String id;
+        final Integer freeSpots;
+        final int distance;
+
+        Shown(ParkingStore.Row row) {
+            this.id = row.getId();
+            this.freeSpots = row.getFreeSpots();
+            this.distance = row.getDistance();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shown)) {
+                return false;
+            }
+            Shown other = (Shown) o;
+            return id.equals(other.id) && freeSpots.equals(other.freeSpots) && distance == other.distance;
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + freeSpots + " " + distance + " m";
+        }
+    }
+}
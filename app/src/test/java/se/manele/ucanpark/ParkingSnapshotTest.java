@@ -0,0 +1,110 @@
+package se.manele.ucanpark;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes snapshots and reads them back.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingSnapshotTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsEveryField() throws IOException {
+        ParkingTimeRules rule = new ParkingTimeRules(3, 8, 0, 24, 0, true, true, 1, 1, 12, 31);
+        List<Parking> parkings = new ArrayList<>();
+        parkings.add(parking("1", "Avgiftsplats", "Onsdag 8-24", rule, "PublicTollParking"));
+        parkings.add(parking("2", "Boendeparkering", "Onsdag 8-24", rule, "ResidentialParking"));
+        parkings.add(parking("3", null, null, null, null));
+
+        File file = folder.newFile("parkings.snapshot");
+        ParkingSnapshot.write(file, parkings);
+        List<Parking> read = ParkingSnapshot.read(file);
+
+        assertEquals(3, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            Parking expected = parkings.get(i);
+            Parking actual = read.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getExtraInformation(), actual.getExtraInformation());
+            assertEquals(expected.getParkingType(), actual.getParkingType());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getFreeSpots(), actual.getFreeSpots());
+        }
+        // the rule is stored once and shared again
+        assertSame(read.get(0).getRules(), read.get(1).getRules());
+        assertNull(read.get(2).getRules());
+    }
+
+    @Test
+    public void ruleIsNotCompiledToBeSaved() throws IOException {
+        Parking parking = new Parking();
+        parking.setId("1");
+        parking.setExtraInformation("P-förbud torsdagar klockan 02.00 - 07.00 jämna veckor");
+        List<Parking> parkings = new ArrayList<>();
+        parkings.add(parking);
+
+        File file = folder.newFile("parkings.snapshot");
+        ParkingSnapshot.write(file, parkings);
+        assertFalse(parking.hasCompiledRules());
+
+        Parking read = ParkingSnapshot.read(file).get(0);
+        assertEquals(parking.getExtraInformation(), read.getExtraInformation());
+        assertFalse(read.hasCompiledRules());
+        assertSame(parking.getRules(), read.getRules());
+    }
+
+    @Test
+    public void otherVersionIsNotRead() throws IOException {
+        List<Parking> parkings = new ArrayList<>();
+        parkings.add(parking("1", "Avgiftsplats", null, null, "PublicTollParking"));
+        File file = folder.newFile("parkings.snapshot");
+        ParkingSnapshot.write(file, parkings);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.writeInt(ParkingSnapshot.VERSION - 1);
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            ParkingSnapshot.read(file);
+            fail("a snapshot of an older version should not be read");
+        }
+        catch (IOException e) {
+            assertEquals("Snapshot is not of version " + ParkingSnapshot.VERSION, e.getMessage());
+        }
+    }
+
+    private static Parking parking(String id, String name, String text, ParkingTimeRules rule, String type) {
+        Parking parking = new Parking();
+        parking.setId(id);
+        parking.setName(name);
+        parking.setExtraInformation(text, rule);
+        parking.setParkingType(type);
+        parking.setLatitude(57.7);
+        parking.setLongitude(11.9);
+        parking.setFreeSpots(4);
+        return parking;
+    }
+}
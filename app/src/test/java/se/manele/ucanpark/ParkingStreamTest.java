@@ -0,0 +1,72 @@
+package se.manele.ucanpark;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks when ParkingStream hands on its batches.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingStreamTest {
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    private final BlockingQueue<List<Parking>> batches = new ArrayBlockingQueue<>(16);
+
+    @After
+    public void stopTimer() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void fullBatchIsHandedOnAtOnce() {
+        ParkingStream stream = new ParkingStream(2, 60000, timer, new Recorder());
+        stream.add(new Parking());
+        assertNull(batches.poll());
+        stream.add(new Parking());
+        assertEquals(2, batches.poll().size());
+    }
+
+    @Test
+    public void batchIsHandedOnWhenTheFeedStalls() throws InterruptedException {
+        ParkingStream stream = new ParkingStream(20, 50, timer, new Recorder());
+        stream.add(new Parking());
+        // nothing more arrives, the timer hands on the batch
+        List<Parking> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(1, batch.size());
+
+        stream.finish(true);
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancelledStreamHandsOnNothing() throws InterruptedException {
+        ParkingStream stream = new ParkingStream(20, 50, timer, new Recorder());
+        stream.add(new Parking());
+        stream.cancel();
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private class Recorder implements ParkingStream.Listener {
+        @Override
+        public void onParkings(List<Parking> parkings) {
+            batches.add(parkings);
+        }
+
+        @Override
+        public void onFinished(boolean complete) {
+
+        }
+    }
+}
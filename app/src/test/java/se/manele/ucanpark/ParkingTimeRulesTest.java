@@ -0,0 +1,182 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the bitmasks of ParkingTimeRules with the interval checks they replaced,
+ * for every minute of a year.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class ParkingTimeRulesTest {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    // the year goes over new year and has week 53 (2020-12-28 to 2021-01-03), so two odd weeks follow each other
+    private static final Instant FROM = new DateTime(2020, 6, 1, 0, 0, DateTimeZone.UTC).toInstant();
+    private static final Instant TO = new DateTime(2021, 6, 1, 0, 0, DateTimeZone.UTC).toInstant();
+
+    // startHour, startMinute, endHour, endMinute
+    private static final int[][] TIMES = {
+            { 7, 30, 11, 0 },
+            { 0, 0, 24, 0 },
+            { 8, 0, 24, 0 },
+            { 22, 0, 6, 0 },
+            { 0, 0, 0, 0 },
+            { 23, 59, 24, 0 },
+    };
+
+    // startMonth, startDay, endMonth, endDay
+    private static final int[][] DATES = {
+            { 1, 1, 12, 31 },
+            { 4, 1, 11, 15 },
+            { 11, 15, 4, 1 },
+            { 12, 31, 1, 2 },
+            { 3, 1, 3, 1 },
+    };
+
+    // forbiddenOddWeeks, forbiddenEvenWeeks
+    private static final boolean[][] WEEKS = {
+            { true, true },
+            { true, false },
+            { false, true },
+    };
+
+    @Test
+    public void matchesIntervalChecksEveryMinuteOfAYear() {
+        List<ParkingTimeRules> rules = new ArrayList<>();
+        List<BaselineRules> baselines = new ArrayList<>();
+        int day = 0;
+        for (int[] time : TIMES) {
+            for (int[] date : DATES) {
+                for (boolean[] week : WEEKS) {
+                    // a spread of days, some rules on two days
+                    int dayOfWeek = day % 7 + 1;
+                    ParkingTimeRules rule = new ParkingTimeRules(dayOfWeek, time[0], time[1], time[2], time[3],
+                            week[0], week[1], date[0], date[1], date[2], date[3]);
+                    BaselineRules baseline = new BaselineRules(dayOfWeek, time[0], time[1], time[2], time[3],
+                            week[0], week[1], date[0], date[1], date[2], date[3]);
+                    if (day % 3 == 0) {
+                        int other = (day + 3) % 7 + 1;
+                        rule = rule.withWeekDay(other);
+                        baseline.addWeekDay(other);
+                    }
+                    rules.add(rule);
+                    baselines.add(baseline);
+                    day++;
+                }
+            }
+        }
+
+        for (long millis = FROM.getMillis(); millis < TO.getMillis(); millis += MILLIS_PER_MINUTE) {
+            Instant timestamp = new Instant(millis);
+            for (int i = 0; i < rules.size(); i++) {
+                boolean expected = baselines.get(i).isParkingForbidden(timestamp);
+                if (rules.get(i).isParkingForbidden(timestamp) != expected) {
+                    fail("rule " + i + " at " + timestamp + " should be " + (expected ? "forbidden" : "allowed"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void endHour24IsForbiddenUntilMidnight() {
+        // a wednesday
+        ParkingTimeRules rule = new ParkingTimeRules(3, 8, 0, 24, 0, true, true, 1, 1, 12, 31);
+        assertEquals(true, rule.isParkingForbidden(new DateTime(2020, 6, 3, 23, 59, DateTimeZone.UTC).toInstant()));
+        assertEquals(false, rule.isParkingForbidden(new DateTime(2020, 6, 4, 0, 0, DateTimeZone.UTC).toInstant()));
+        assertEquals(false, rule.isParkingForbidden(new DateTime(2020, 6, 3, 7, 59, DateTimeZone.UTC).toInstant()));
+    }
+
+    /**
+     * ParkingTimeRules as it was before it was compiled into bitmasks
+     */
+    static class BaselineRules {
+        private final Set<Integer> weekdays = new HashSet<>();
+        private final int startHour;
+        private final int startMinute;
+        private final int endHour;
+        private final int endMinute;
+        private final boolean forbiddenOddWeeks;
+        private final boolean forbiddenEvenWeeks;
+        private final int startMonth;
+        private final int startDay;
+        private final int endMonth;
+        private final int endDay;
+
+        BaselineRules(int dayOfWeek, int startHour, int startMinute, int endHour, int endMinute, boolean forbiddenOddWeeks, boolean forbiddenEvenWeeks, int startMonth, int startDay, int endMonth, int endDay) {
+            weekdays.add(dayOfWeek);
+            this.startHour = startHour;
+            this.startMinute = startMinute;
+            this.endHour = endHour;
+            this.endMinute = endMinute;
+            this.forbiddenOddWeeks = forbiddenOddWeeks;
+            this.forbiddenEvenWeeks = forbiddenEvenWeeks;
+            this.startMonth = startMonth;
+            this.startDay = startDay;
+            this.endMonth = endMonth;
+            this.endDay = endDay;
+        }
+
+        void addWeekDay(int dayOfWeek) {
+            weekdays.add(dayOfWeek);
+        }
+
+        boolean isParkingForbidden(Instant timestamp) {
+            int dayOfWeek = timestamp.get(DateTimeFieldType.dayOfWeek());
+            int now = timestamp.get(DateTimeFieldType.clockhourOfDay()) * 60 +
+                      timestamp.get(DateTimeFieldType.minuteOfHour());
+            if (!weekdays.contains(dayOfWeek))
+                return false;
+
+            int timePeriodStart = startHour * 60 + startMinute;
+            int timePeriodEnd = endHour * 60 + endMinute;
+            if (timePeriodStart < timePeriodEnd) {
+                if (now < timePeriodStart || now >= timePeriodEnd) {
+                    return false;
+                }
+            }
+            else {
+                if (now >= timePeriodStart && now < timePeriodEnd) {
+                    return false;
+                }
+            }
+
+            int weekNumber = timestamp.get(DateTimeFieldType.weekOfWeekyear());
+            boolean oddWeek = (weekNumber % 2) == 1;
+            if (oddWeek && !forbiddenOddWeeks)
+                return false;
+            if (!oddWeek && !forbiddenEvenWeeks)
+                return false;
+
+            int today = timestamp.get(DateTimeFieldType.monthOfYear()) * 100 + timestamp.get(DateTimeFieldType.dayOfMonth());
+            int datePeriodStart = startMonth * 100 + startDay;
+            int datePeriodEnd = endMonth * 100 + endDay;
+
+            if (datePeriodStart < datePeriodEnd) {
+                if (today < datePeriodStart || today >= datePeriodEnd) {
+                    return false;
+                }
+            }
+            else {
+                if (today >= datePeriodStart && today < datePeriodEnd) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package se.manele.ucanpark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the queries of SpatialIndex with measuring the distance to every parking.
+ * The index picks parkings by a flat distance and DistanceEngine measures on the sphere,
+ * so near the edge of a radius, or between the n:th and the next parking, they may pick differently.
+ * The flat distance is off by more the further away a parking is.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class SpatialIndexTest {
+    private static final double LATITUDE = 57.70;
+    private static final double LONGITUDE = 11.97;
+    // meters the two ways to measure may differ by close by, and per km further away
+    private static final int SLACK = 2;
+    private static final int SLACK_PER_KM = 1;
+
+    private final List<Parking> parkings = parkings();
+    private final SpatialIndex index = new SpatialIndex(parkings);
+
+    @Test
+    public void leavesOutParkingsWithoutLocation() {
+        assertEquals(parkings.size() - 1, index.size());
+    }
+
+    @Test
+    public void withinRadiusMatchesAScan() {
+        for (double[] query : queries()) {
+            for (int radius : new int[] { 0, 100, 800, 3200, 50000 }) {
+                List<Parking> found = index.withinRadius(query[0], query[1], radius);
+                assertSorted(found);
+                for (Parking parking : found) {
+                    assertTrue(parking.getDistance() <= radius + slack(radius));
+                }
+                int[] expected = scan(query[0], query[1]);
+                int inside = 0;
+                for (int distance : expected) {
+                    inside += distance <= radius - slack(radius) ? 1 : 0;
+                }
+                assertTrue(found.size() >= inside);
+                for (int i = 0; i < inside; i++) {
+                    assertEquals(expected[i], found.get(i).getDistance());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestMatchesAScan() {
+        for (double[] query : queries()) {
+            for (int n : new int[] { 1, 10, 250, 5000 }) {
+                List<Parking> found = index.nearest(query[0], query[1], n);
+                assertSorted(found);
+                int[] expected = scan(query[0], query[1]);
+                assertEquals(Math.min(n, expected.length), found.size());
+                for (int i = 0; i < found.size(); i++) {
+                    int difference = Math.abs(expected[i] - found.get(i).getDistance());
+                    assertTrue("query " + Arrays.toString(query) + ", n " + n + ", position " + i,
+                            difference <= slack(expected[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * The distances to every parking with a location, shortest first
+     */
+    private int[] scan(double latitude, double longitude) {
+        int[] distances = new int[parkings.size()];
+        int count = 0;
+        for (Parking parking : parkings) {
+            if (SpatialIndex.hasLocation(parking.getLatitude(), parking.getLongitude())) {
+                distances[count++] = DistanceEngine.distance(latitude, longitude, parking.getLatitude(), parking.getLongitude());
+            }
+        }
+        distances = Arrays.copyOf(distances, count);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    private static int slack(int distance) {
+        return SLACK + distance / 1000 * SLACK_PER_KM;
+    }
+
+    private static void assertSorted(List<Parking> found) {
+        for (int i = 1; i < found.size(); i++) {
+            assertTrue(found.get(i - 1).getDistance() <= found.get(i).getDistance());
+        }
+    }
+
+    /**
+     * Inside the grid, on its edges and far outside it on every side
+     */
+    private static List<double[]> queries() {
+        List<double[]> queries = new ArrayList<>();
+        queries.add(new double[] { LATITUDE, LONGITUDE });
+        queries.add(new double[] { LATITUDE + 0.05, LONGITUDE + 0.1 });
+        queries.add(new double[] { LATITUDE - 0.1, LONGITUDE });
+        queries.add(new double[] { LATITUDE + 0.3, LONGITUDE });
+        queries.add(new double[] { LATITUDE, LONGITUDE - 0.5 });
+        queries.add(new double[] { LATITUDE + 0.2, LONGITUDE + 0.4 });
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            queries.add(new double[] { LATITUDE - 0.02 + random.nextDouble() * 0.14,
+                    LONGITUDE - 0.02 + random.nextDouble() * 0.24 });
+        }
+        return queries;
+    }
+
+    /**
+     * Parkings over about 10 x 10 km, most of them in a dense center, and one without a location
+     */
+    private static List<Parking> parkings() {
+        Random random = new Random(5);
+        List<Parking> parkings = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Parking parking = new Parking();
+            parking.setId(String.valueOf(i));
+            double spread = i % 4 == 0 ? 1 : 0.2;
+            parking.setLatitude(LATITUDE + random.nextDouble() * 0.09 * spread);
+            parking.setLongitude(LONGITUDE + random.nextDouble() * 0.17 * spread);
+            parkings.add(parking);
+        }
+        parkings.add(new Parking());
+        return parkings;
+    }
+}
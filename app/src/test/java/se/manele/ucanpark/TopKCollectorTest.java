@@ -0,0 +1,54 @@
+package se.manele.ucanpark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Compares TopKCollector with sorting the whole feed and keeping the first k.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public class TopKCollectorTest {
+    @Test
+    public void keepsTheSameParkingsAsAFullSort() {
+        Random random = new Random(3);
+        int[] sizes = { 0, 1, 5, 250, 1000 };
+        int[] ks = { 1, 7, 250, 2000 };
+        for (int size : sizes) {
+            for (int k : ks) {
+                List<Parking> feed = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    Parking parking = new Parking();
+                    parking.setId(String.valueOf(i));
+                    // few different distances, so many parkings are equal
+                    parking.setDistance(random.nextInt(50) * 100);
+                    parking.setFreeSpots(random.nextInt(4) == 0 ? Parking.NO_VALUE : random.nextInt(20));
+                    feed.add(parking);
+                }
+                TopKCollector top = new TopKCollector(k);
+                for (Parking parking : feed) {
+                    top.add(parking);
+                }
+                assertEquals(size, top.getCount());
+
+                // a stable sort keeps the feed order of equal parkings
+                List<Parking> sorted = new ArrayList<>(feed);
+                Collections.sort(sorted, Parking.DistanceComparator);
+                List<Parking> expected = sorted.subList(0, Math.min(k, size));
+                List<Parking> kept = top.takeSorted();
+                assertEquals(expected.size(), kept.size());
+                for (int i = 0; i < kept.size(); i++) {
+                    assertSame("size " + size + ", k " + k + ", position " + i, expected.get(i), kept.get(i));
+                }
+            }
+        }
+    }
+}
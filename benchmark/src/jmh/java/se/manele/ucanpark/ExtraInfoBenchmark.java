@@ -0,0 +1,44 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Parking.setExtraInformation, which only keeps the text, and compiling the rule
+ * the first time it is needed. In the feeds the same few texts are repeated, so most
+ * rules are found in the cache, the cost of a text seen for the first time is measured
+ * with ExtraInfoParser.parse.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExtraInfoBenchmark {
+    private final Parking parking = new Parking();
+    private int next;
+
+    @Benchmark
+    public Parking setExtraInformation() {
+        parking.setExtraInformation(FeedData.EXTRA_INFOS[next++ % FeedData.EXTRA_INFOS.length]);
+        return parking;
+    }
+
+    @Benchmark
+    public ParkingTimeRules setExtraInformationAndCompile() {
+        parking.setExtraInformation(FeedData.EXTRA_INFOS[next++ % FeedData.EXTRA_INFOS.length]);
+        return parking.getRules();
+    }
+
+    @Benchmark
+    public ParkingTimeRules parseUncached() {
+        return ExtraInfoParser.parse(FeedData.EXTRA_INFOS[next++ % FeedData.EXTRA_INFOS.length]);
+    }
+}
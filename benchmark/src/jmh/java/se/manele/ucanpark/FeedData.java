@@ -0,0 +1,125 @@
+package se.manele.ucanpark;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class creates the data the benchmarks run on: feeds that look like the ones of
+ * Göteborgs Parkering API, ExtraInfo texts and parkings. The same seed always gives the
+ * same data, so results of different runs can be compared.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+final class FeedData {
+    static final String PARKING_NAME = "PublicTimeParking";
+
+    // the kinds of texts that are found in the ExtraInfo of the feeds
+    static final String[] EXTRA_INFOS = {
+            "P-förbud torsdagar klockan 02.00 - 07.00 jämna veckor",
+            "P-förbud onsdagar klockan 02.00 - 07.00",
+            "P-förbud måndagar klockan 08.00 - 12.00 udda veckor under tiden 1:a april - 15:e november",
+            "P-förbud fredagar klockan 00.00 - 06.00 udda veckor",
+            "P-förbud tisdagar klockan 10.00 - 14.00 under tiden 1:a maj - 30:e september",
+            "Max 3 tim 8-18 vardagar",
+            "Avgift 15 kr/tim"
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FeedData() {
+
+    }
+
+    /**
+     * Creates a feed with the given number of parkings, 100 000 parkings is about 40 MB of XML
+     * @param size how many parkings
+     * @return the XML, encoded as UTF-8
+     */
+    static byte[] feed(int size) {
+        Random random = new Random(size);
+        StringBuilder xml = new StringBuilder(size * 400);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        xml.append("<ArrayOf").append(PARKING_NAME)
+                .append(" xmlns:i=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://data.goteborg.se/\">\n");
+        for (int i = 0; i < size; i++) {
+            xml.append("  <").append(PARKING_NAME).append(">\n");
+            element(xml, "Id", "1480 2016-" + String.format(Locale.ROOT, "%05d", i));
+            element(xml, "Name", "Gatan " + (i % 997) + " " + (i % 7));
+            element(xml, "Owner", "Trafikkontoret");
+            element(xml, "ParkingSpaces", Integer.toString(1 + random.nextInt(200)));
+            if (random.nextInt(3) > 0) {
+                element(xml, "FreeSpaces", Integer.toString(random.nextInt(20)));
+            }
+            element(xml, "Distance", Integer.toString(random.nextInt(5000)));
+            element(xml, "Lat", String.format(Locale.ROOT, "%.13f", 57.6 + random.nextDouble() * 0.2));
+            element(xml, "Long", String.format(Locale.ROOT, "%.13f", 11.8 + random.nextDouble() * 0.3));
+            element(xml, "MaxParkingTime", "3 tim");
+            element(xml, "ExtraInfo", EXTRA_INFOS[random.nextInt(EXTRA_INFOS.length)]);
+            xml.append("    <WKT>POINT (").append(11.8 + random.nextDouble() * 0.3).append(' ')
+                    .append(57.6 + random.nextDouble() * 0.2).append(")</WKT>\n");
+            xml.append("  </").append(PARKING_NAME).append(">\n");
+        }
+        xml.append("</ArrayOf").append(PARKING_NAME).append(">\n");
+        return xml.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Creates parkings with random distances, a third of them without free spaces
+     * @param size how many parkings
+     * @return the parkings, in random order
+     */
+    static List<Parking> parkings(int size) {
+        Random random = new Random(size);
+        List<Parking> parkings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Parking parking = new Parking();
+            parking.setId("1480 2016-" + i);
+            parking.setDistance(random.nextInt(5000));
+            if (random.nextInt(3) > 0) {
+                parking.setFreeSpots(random.nextInt(20));
+            }
+            parkings.add(parking);
+        }
+        return parkings;
+    }
+
+    /**
+     * Creates parkings spread over Göteborg
+     * @param size how many parkings
+     * @return the parkings, with coordinates
+     */
+    static List<Parking> locatedParkings(int size) {
+        Random random = new Random(size);
+        List<Parking> parkings = parkings(size);
+        for (Parking parking : parkings) {
+            parking.setLatitude(57.6 + random.nextDouble() * 0.2);
+            parking.setLongitude(11.8 + random.nextDouble() * 0.3);
+        }
+        return parkings;
+    }
+
+    /**
+     * Creates parkings spread over Göteborg with names and rules, like a feed after parsing
+     * @param size how many parkings
+     * @return the parkings
+     */
+    static List<Parking> describedParkings(int size) {
+        Random random = new Random(size);
+        List<Parking> parkings = locatedParkings(size);
+        for (int i = 0; i < parkings.size(); i++) {
+            Parking parking = parkings.get(i);
+            parking.setName("Gata " + i);
+            parking.setParkingSpots(1 + random.nextInt(40));
+            parking.setExtraInformation(EXTRA_INFOS[random.nextInt(EXTRA_INFOS.length)]);
+        }
+        return parkings;
+    }
+
+    private static void element(StringBuilder xml, String tag, String text) {
+        xml.append("    <").append(tag).append('>').append(text).append("</").append(tag).append(">\n");
+    }
+}
@@ -0,0 +1,54 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to turn a feed into parkings. This is the part of
+ * NetworkUtils.fetchParkingData that runs after the body has been downloaded, the
+ * network itself is left out so that the numbers are stable.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FeedParsingBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int parkings;
+
+    private byte[] feed;
+
+    @Setup
+    public void setUp() {
+        feed = FeedData.feed(parkings);
+    }
+
+    @Benchmark
+    public List<Parking> parseFeed() throws IOException, XmlPullParserException {
+        final List<Parking> result = new ArrayList<>();
+        NetworkUtils.parseParkingData(new ByteArrayInputStream(feed), FeedData.PARKING_NAME,
+                new NetworkUtils.ParkingSink() {
+                    @Override
+                    public boolean add(Parking parking) {
+                        result.add(parking);
+                        return true;
+                    }
+                });
+        return result;
+    }
+}
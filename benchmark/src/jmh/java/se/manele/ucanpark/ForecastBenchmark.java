@@ -0,0 +1,77 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding the parkings that are allowed during a whole horizon, with an
+ * AvailabilityForecast and by checking every parking minute by minute. Building the
+ * forecast is measured on its own.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForecastBenchmark {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    @Param({"6", "168"})
+    public int horizonHours;
+
+    private final DateTimeZone zone = DateTimeZone.forID("Europe/Stockholm");
+    private ParkingStore parkings;
+    private long from;
+    private long to;
+    private AvailabilityForecast forecast;
+
+    @Setup
+    public void setUp() {
+        parkings = ParkingStore.of(FeedData.describedParkings(5000));
+        // a Monday evening
+        from = new DateTime(2019, 4, 1, 18, 0, zone).getMillis();
+        to = from + TimeUnit.HOURS.toMillis(horizonHours);
+        forecast = AvailabilityForecast.build(parkings, from, to - from, 1, zone);
+    }
+
+    @Benchmark
+    public AvailabilityForecast build() {
+        return AvailabilityForecast.build(parkings, from, to - from, 1, zone);
+    }
+
+    @Benchmark
+    public int[] allowedWithForecast() {
+        return forecast.getAllowedPositions(from, to);
+    }
+
+    @Benchmark
+    public int allowedMinuteByMinute() {
+        boolean[] forbidden = new boolean[parkings.size()];
+        for (long millis = from; millis < to; millis += MILLIS_PER_MINUTE) {
+            RuleClock clock = RuleClock.at(millis, zone);
+            for (int i = 0; i < parkings.size(); i++) {
+                int rule = parkings.getRuleIndex(i);
+                ParkingTimeRules rules = rule == ParkingStore.NO_RULE ? null : parkings.getRule(rule);
+                if (!forbidden[i] && rules != null && rules.isParkingForbidden(clock)) {
+                    forbidden[i] = true;
+                }
+            }
+        }
+        int allowed = 0;
+        for (boolean f : forbidden) {
+            allowed += f ? 0 : 1;
+        }
+        return allowed;
+    }
+}
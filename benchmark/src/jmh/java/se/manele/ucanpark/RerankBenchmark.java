@@ -0,0 +1,51 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the distances again and re-ranking the list when the user
+ * has moved a short way, the list is sorted for the start location before every call.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RerankBenchmark {
+    private static final double LATITUDE = 57.7;
+    private static final double LONGITUDE = 11.95;
+
+    @Param({"500", "5000"})
+    public int parkings;
+
+    // how far the user has moved, in degrees of latitude
+    @Param({"0.0005", "0.005"})
+    public double moved;
+
+    private List<Parking> list;
+
+    @Setup
+    public void setUp() {
+        list = new ArrayList<>(ParkingResults.rerank(FeedData.locatedParkings(parkings),
+                LATITUDE, LONGITUDE, new ArrayList<ParkingResults.Change>()));
+        Collections.sort(list, Parking.DistanceComparator);
+    }
+
+    @Benchmark
+    public List<Parking> rerank() {
+        return ParkingResults.rerank(list, LATITUDE + moved, LONGITUDE, new ArrayList<ParkingResults.Change>());
+    }
+}
@@ -0,0 +1,104 @@
+package se.manele.ucanpark;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ParkingTimeRules.isParkingForbidden for every minute of a year,
+ * the result is the time of one check. The rule is checked both against a timestamp
+ * and against the clock of a tick, where the fields of the time are already known.
+ * A simple sign with one clause is compared with a sign with many clauses.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RuleEvaluationBenchmark {
+    private static final int MINUTES_PER_YEAR = 365 * 24 * 60;
+    // eight clauses: mån-fre is five of them in one, and the rest have their own weeks and dates
+    private static final String COMPLEX_SIGN =
+            "P-förbud mån-fredagar klockan 08.00 - 10.00, torsdagar klockan 02.00 - 07.00 jämna veckor\n"
+            + "lördagar klockan 22.00 - 06.00 under tiden 1:a maj - 30:e september\n"
+            + "P-förbud söndagar klockan 12.00 - 13.00 udda veckor\n"
+            + "P-förbud onsdagar klockan 02.00 - 07.00 under tiden 15:e november - 1:a april\n"
+            + "P-förbud tisdagar klockan 10.00 - 14.00 udda veckor under tiden 1:a maj - 30:e september\n"
+            + "P-förbud måndagar klockan 00.00 - 06.00 jämna veckor\n"
+            + "P-förbud fre-sön klockan 18.00 - 20.00 under tiden 1:a juni - 31:a augusti";
+
+    @Param({"simple", "complex"})
+    public String sign;
+
+    private ParkingTimeRules rules;
+    private Instant[] timestamps;
+    private RuleClock[] clocks;
+
+    @Setup
+    public void setUp() {
+        if ("complex".equals(sign)) {
+            rules = ExtraInfoParser.parse(COMPLEX_SIGN);
+        }
+        else {
+            rules = new ParkingTimeRules(DateTimeConstants.MONDAY, 8, 0, 12, 0, true, false, 4, 1, 11, 15)
+                    .withWeekDay(DateTimeConstants.THURSDAY);
+        }
+        // 2019-01-01T00:00Z
+        long start = 1546300800000L;
+        timestamps = new Instant[MINUTES_PER_YEAR];
+        clocks = new RuleClock[MINUTES_PER_YEAR];
+        DateTimeZone zone = DateTimeZone.forID("Europe/Stockholm");
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = new Instant(start + i * 60000L);
+            clocks[i] = RuleClock.at(start + i * 60000L, zone);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MINUTES_PER_YEAR)
+    public int isParkingForbidden() {
+        int forbidden = 0;
+        for (Instant timestamp : timestamps) {
+            if (rules.isParkingForbidden(timestamp)) {
+                forbidden++;
+            }
+        }
+        return forbidden;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MINUTES_PER_YEAR)
+    public int isParkingForbiddenAtTick() {
+        int forbidden = 0;
+        for (RuleClock clock : clocks) {
+            if (rules.isParkingForbidden(clock)) {
+                forbidden++;
+            }
+        }
+        return forbidden;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MINUTES_PER_YEAR / 60)
+    public long nextTransition() {
+        // one lookup an hour, the transitions of the rule are a few hours apart
+        long sum = 0;
+        for (int i = 0; i < timestamps.length; i += 60) {
+            Instant transition = rules.nextTransition(timestamps[i]);
+            sum += transition == null ? 0 : transition.getMillis();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,60 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading and writing the snapshot that is shown at start.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+    @Param({"1000", "5000"})
+    public int parkings;
+
+    private File file;
+    private List<Parking> list;
+
+    @Setup
+    public void setUp() throws IOException {
+        list = FeedData.parkings(parkings);
+        for (int i = 0; i < list.size(); i++) {
+            list.get(i).setName("Gatan " + i);
+            list.get(i).setExtraInformation(FeedData.EXTRA_INFOS[i % FeedData.EXTRA_INFOS.length]);
+        }
+        file = File.createTempFile("parkings", ".snapshot");
+        ParkingSnapshot.write(file, list);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<Parking> read() throws IOException {
+        return ParkingSnapshot.read(file);
+    }
+
+    @Benchmark
+    public File write() throws IOException {
+        ParkingSnapshot.write(file, list);
+        return file;
+    }
+}
@@ -0,0 +1,53 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting the parkings with Parking.DistanceComparator. The list is shuffled
+ * back to the same random order before every call.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int parkings;
+
+    private List<Parking> unsorted;
+    private List<Parking> list;
+
+    @Setup
+    public void setUp() {
+        unsorted = FeedData.parkings(parkings);
+        list = new ArrayList<>(unsorted);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        for (int i = 0; i < unsorted.size(); i++) {
+            list.set(i, unsorted.get(i));
+        }
+    }
+
+    @Benchmark
+    public List<Parking> sortByDistance() {
+        Collections.sort(list, Parking.DistanceComparator);
+        return list;
+    }
+}
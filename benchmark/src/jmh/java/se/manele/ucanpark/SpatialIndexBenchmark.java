@@ -0,0 +1,46 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures radius and nearest queries of the spatial index at random places in the city.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpatialIndexBenchmark {
+    @Param({"10000", "100000"})
+    public int parkings;
+
+    private SpatialIndex index;
+    private final Random random = new Random(1);
+
+    @Setup
+    public void setUp() {
+        index = new SpatialIndex(FeedData.locatedParkings(parkings));
+    }
+
+    @Benchmark
+    public List<Parking> withinRadius() {
+        return index.withinRadius(57.6 + random.nextDouble() * 0.2, 11.8 + random.nextDouble() * 0.3, 800);
+    }
+
+    @Benchmark
+    public List<Parking> nearest() {
+        return index.nearest(57.6 + random.nextDouble() * 0.2, 11.8 + random.nextDouble() * 0.3, 20);
+    }
+}
@@ -0,0 +1,69 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting parkings as objects with Parking.DistanceComparator against sorting
+ * them by number keys, as a list and as a ParkingStore. Everything is put back in the
+ * same random order before every call. The heap used by the two models is printed by
+ * StoreFootprint, run with ./gradlew :benchmark:storeFootprint
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+    @Param({"50000"})
+    public int parkings;
+
+    private List<Parking> unsorted;
+    private List<Parking> list;
+    private ParkingStore store;
+
+    @Setup
+    public void setUp() {
+        unsorted = FeedData.describedParkings(parkings);
+        list = new ArrayList<>(unsorted);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        for (int i = 0; i < unsorted.size(); i++) {
+            list.set(i, unsorted.get(i));
+        }
+        store = ParkingStore.of(unsorted);
+    }
+
+    @Benchmark
+    public List<Parking> sortObjects() {
+        Collections.sort(list, Parking.DistanceComparator);
+        return list;
+    }
+
+    @Benchmark
+    public List<Parking> sortObjectsByKeys() {
+        ParkingStore.sortByDistance(list);
+        return list;
+    }
+
+    @Benchmark
+    public ParkingStore sortStore() {
+        store.sortByDistance();
+        return store;
+    }
+}
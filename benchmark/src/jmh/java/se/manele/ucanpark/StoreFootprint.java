@@ -0,0 +1,52 @@
+package se.manele.ucanpark;
+
+import java.util.List;
+
+/**
+ * Prints how much heap the same parkings use as a list of Parking objects and as a
+ * ParkingStore. The texts are shared by both and are not counted. The numbers come from
+ * the used heap after garbage collection, so they are close but not exact.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+public final class StoreFootprint {
+
+    private StoreFootprint() {
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        List<Parking> parkings = FeedData.describedParkings(size);
+        // keeps the texts alive when the parkings are gone
+        String[] texts = new String[size * 3];
+        for (int i = 0; i < size; i++) {
+            texts[3 * i] = parkings.get(i).getId();
+            texts[3 * i + 1] = parkings.get(i).getName();
+            texts[3 * i + 2] = parkings.get(i).getExtraInformation();
+        }
+        long withObjects = usedHeap();
+        ParkingStore store = ParkingStore.of(parkings);
+        long withBoth = usedHeap();
+        parkings = null;
+        long withStore = usedHeap();
+
+        System.out.println(size + " parkings");
+        System.out.println("objects: " + (withBoth - withStore) / 1024 + " KiB");
+        System.out.println("store:   " + (withBoth - withObjects) / 1024 + " KiB");
+        // keeps the store and the texts alive until here
+        System.out.println(store.size() + " rows, " + texts.length + " texts");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
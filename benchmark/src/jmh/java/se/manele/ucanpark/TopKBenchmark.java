@@ -0,0 +1,65 @@
+package se.manele.ucanpark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a large feed into a full list that is sorted afterwards with keeping
+ * only the closest parkings in a TopKCollector while the feed is parsed.
+ *
+ * @version 2019-04-01
+ * @author Elena Marzi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TopKBenchmark {
+    @Param({"10000", "100000"})
+    public int parkings;
+
+    @Param({"50", "250"})
+    public int k;
+
+    private byte[] feed;
+
+    @Setup
+    public void setUp() {
+        feed = FeedData.feed(parkings);
+    }
+
+    @Benchmark
+    public List<Parking> parseAndSort() throws IOException, XmlPullParserException {
+        final List<Parking> result = new ArrayList<>();
+        NetworkUtils.parseParkingData(new ByteArrayInputStream(feed), FeedData.PARKING_NAME,
+                new NetworkUtils.ParkingSink() {
+                    @Override
+                    public boolean add(Parking parking) {
+                        result.add(parking);
+                        return true;
+                    }
+                });
+        Collections.sort(result, Parking.DistanceComparator);
+        return result.subList(0, Math.min(k, result.size()));
+    }
+
+    @Benchmark
+    public List<Parking> parseTopK() throws IOException, XmlPullParserException {
+        TopKCollector top = new TopKCollector(k);
+        NetworkUtils.parseParkingData(new ByteArrayInputStream(feed), FeedData.PARKING_NAME, top);
+        return top.takeSorted();
+    }
+}